@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import brave.sampler.Sampler;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.StubSession;
+
+/** Shared fixtures so that each benchmark compares the same statements. */
+final class BenchmarkStatements {
+  static final String QUERY = "SELECT * FROM users WHERE id = ?";
+
+  /** Drops spans as opposed to reporting them, so we only measure recording overhead. */
+  static final SpanHandler DROP = new SpanHandler() {
+    @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+      return false;
+    }
+  };
+
+  static Tracing tracing(Sampler sampler) {
+    return Tracing.newBuilder().sampler(sampler).addSpanHandler(DROP).build();
+  }
+
+  static Statement newStatement(String kind, StubSession session) {
+    PreparedStatement prepared = session.prepared("app", QUERY);
+    switch (kind) {
+      case "simple":
+        return new SimpleStatement("SELECT * FROM app.users WHERE id = 1");
+      case "bound":
+        return prepared.bind();
+      case "batch":
+        BatchStatement batch = new BatchStatement();
+        for (int i = 0; i < 10; i++) batch.add(prepared.bind());
+        return batch;
+      default:
+        throw new IllegalArgumentException("unknown statement kind: " + kind);
+    }
+  }
+
+  private BenchmarkStatements() {
+  }
+}
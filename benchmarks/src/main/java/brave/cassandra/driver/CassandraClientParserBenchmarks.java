@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.NoopSpanCustomizer;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.StubSession;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static brave.cassandra.driver.BenchmarkStatements.newStatement;
+
+/** Measures the default parser, which runs once per sampled request. */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class CassandraClientParserBenchmarks {
+  @Param({"simple", "bound", "batch"})
+  public String kind;
+
+  final CassandraClientParser parser = new CassandraClientParser();
+  StubSession delegate;
+  Statement statement;
+
+  @Setup public void init() {
+    delegate = new StubSession();
+    statement = newStatement(kind, delegate);
+  }
+
+  @TearDown public void close() {
+    delegate.close();
+  }
+
+  @Benchmark public void request() {
+    parser.request(statement, NoopSpanCustomizer.INSTANCE);
+  }
+
+  @Benchmark public String spanName() {
+    return parser.spanName(statement);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + CassandraClientParserBenchmarks.class.getSimpleName())
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.Tracing;
+import brave.sampler.Sampler;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.StubSession;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static brave.cassandra.driver.BenchmarkStatements.newStatement;
+import static brave.cassandra.driver.BenchmarkStatements.tracing;
+
+/** Measures adding trace context to the outgoing payload of a statement. */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class PropagationBenchmarks {
+  @Param({"simple", "bound", "batch"})
+  public String kind;
+
+  StubSession delegate;
+  Tracing tracing;
+  TracingSession.PropagatingTracingSession session;
+  Span sampledSpan, unsampledSpan;
+  Statement statement, statementWithPayload;
+
+  @Setup public void init() {
+    delegate = new StubSession();
+    tracing = tracing(Sampler.ALWAYS_SAMPLE);
+    session = new TracingSession.PropagatingTracingSession(
+        CassandraClientTracing.create(tracing), delegate);
+    sampledSpan = tracing.tracer().nextSpan();
+    unsampledSpan = tracing.tracer().withSampler(Sampler.NEVER_SAMPLE).nextSpan();
+    statement = newStatement(kind, delegate);
+    statementWithPayload = newStatement(kind, delegate);
+    statementWithPayload.setOutgoingPayload(
+        Collections.singletonMap("tenant", ByteBuffer.wrap(new byte[] {'a'})));
+  }
+
+  @TearDown public void close() {
+    tracing.close();
+    delegate.close();
+  }
+
+  @Benchmark public Statement maybeDecorate_unsampled() {
+    return session.maybeDecorate(statement, unsampledSpan);
+  }
+
+  @Benchmark public Statement maybeDecorate_sampled() {
+    return session.maybeDecorate(statement, sampledSpan);
+  }
+
+  @Benchmark public Statement maybeDecorate_sampled_existingPayload() {
+    return session.maybeDecorate(statementWithPayload, sampledSpan);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + PropagationBenchmarks.class.getSimpleName())
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
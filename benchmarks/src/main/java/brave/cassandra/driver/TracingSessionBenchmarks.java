@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Tracing;
+import brave.sampler.Sampler;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.StubSession;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static brave.cassandra.driver.BenchmarkStatements.newStatement;
+import static brave.cassandra.driver.BenchmarkStatements.tracing;
+
+/** Compares the cost of {@link TracingSession#executeAsync} against the session it wraps. */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class TracingSessionBenchmarks {
+  @Param({"simple", "bound", "batch"})
+  public String kind;
+
+  StubSession delegate;
+  Tracing unsampledTracing, sampledTracing;
+  TracingSession unsampled, sampled, unsampledPropagated, sampledPropagated;
+  Statement statement;
+
+  @Setup public void init() {
+    delegate = new StubSession();
+    unsampledTracing = tracing(Sampler.NEVER_SAMPLE);
+    sampledTracing = tracing(Sampler.ALWAYS_SAMPLE);
+    CassandraClientTracing unsampledCassandra = CassandraClientTracing.create(unsampledTracing);
+    CassandraClientTracing sampledCassandra = CassandraClientTracing.create(sampledTracing);
+    unsampled = new TracingSession(unsampledCassandra, delegate);
+    sampled = new TracingSession(sampledCassandra, delegate);
+    unsampledPropagated =
+        new TracingSession.PropagatingTracingSession(unsampledCassandra, delegate);
+    sampledPropagated = new TracingSession.PropagatingTracingSession(sampledCassandra, delegate);
+    statement = newStatement(kind, delegate);
+  }
+
+  @TearDown public void close() {
+    unsampledTracing.close();
+    sampledTracing.close();
+    delegate.close();
+  }
+
+  @Benchmark public ResultSetFuture executeAsync_unwrapped() {
+    return delegate.executeAsync(statement);
+  }
+
+  @Benchmark public ResultSetFuture executeAsync_unsampled() {
+    return unsampled.executeAsync(statement);
+  }
+
+  @Benchmark public ResultSetFuture executeAsync_unsampled_propagated() {
+    return unsampledPropagated.executeAsync(statement);
+  }
+
+  @Benchmark public ResultSetFuture executeAsync_sampled() {
+    return sampled.executeAsync(statement);
+  }
+
+  @Benchmark public ResultSetFuture executeAsync_sampled_propagated() {
+    return sampledPropagated.executeAsync(statement);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + TracingSessionBenchmarks.class.getSimpleName())
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
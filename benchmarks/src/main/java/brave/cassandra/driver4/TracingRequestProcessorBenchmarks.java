@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import brave.sampler.Sampler;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchType;
+import com.datastax.oss.driver.api.core.cql.ExecutionInfo;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.type.reflect.GenericType;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.session.DefaultSession;
+import com.datastax.oss.driver.internal.core.session.RequestProcessor;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost of {@link TracingRequestProcessor} against the processor it wraps. Run this
+ * with the same parameters as {@code TracingSessionBenchmarks} to compare against the 3.x driver.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class TracingRequestProcessorBenchmarks {
+  /** Drops spans as opposed to reporting them, so we only measure recording overhead. */
+  static final SpanHandler DROP = new SpanHandler() {
+    @Override public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+      return false;
+    }
+  };
+
+  @Param({"simple", "batch"})
+  public String kind;
+
+  StubProcessor delegate;
+  Tracing unsampledTracing, sampledTracing;
+  TracingRequestProcessor<Statement<?>, CompletionStage<AsyncResultSet>>
+      unsampled, sampled, unsampledPropagated, sampledPropagated;
+  Statement<?> statement;
+
+  @Setup public void init() {
+    delegate = new StubProcessor();
+    unsampledTracing = tracing(Sampler.NEVER_SAMPLE);
+    sampledTracing = tracing(Sampler.ALWAYS_SAMPLE);
+    // a fixed remote service name avoids reading the cluster name from the null session
+    CassandraClientTracing unsampledCassandra =
+        CassandraClientTracing.create(unsampledTracing).clientOf("benchmark");
+    CassandraClientTracing sampledCassandra =
+        CassandraClientTracing.create(sampledTracing).clientOf("benchmark");
+    unsampled = new TracingRequestProcessor<>(delegate, unsampledCassandra);
+    sampled = new TracingRequestProcessor<>(delegate, sampledCassandra);
+    unsampledPropagated = new TracingRequestProcessor<>(delegate,
+        unsampledCassandra.toBuilder().propagationEnabled(true).build());
+    sampledPropagated = new TracingRequestProcessor<>(delegate,
+        sampledCassandra.toBuilder().propagationEnabled(true).build());
+    statement = newStatement(kind);
+  }
+
+  @TearDown public void close() {
+    unsampledTracing.close();
+    sampledTracing.close();
+  }
+
+  @Benchmark public CompletionStage<AsyncResultSet> process_unwrapped() {
+    return delegate.process(statement, null, null, "benchmark");
+  }
+
+  @Benchmark public CompletionStage<AsyncResultSet> process_unsampled() {
+    return unsampled.process(statement, null, null, "benchmark");
+  }
+
+  @Benchmark public CompletionStage<AsyncResultSet> process_unsampled_propagated() {
+    return unsampledPropagated.process(statement, null, null, "benchmark");
+  }
+
+  @Benchmark public CompletionStage<AsyncResultSet> process_sampled() {
+    return sampled.process(statement, null, null, "benchmark");
+  }
+
+  @Benchmark public CompletionStage<AsyncResultSet> process_sampled_propagated() {
+    return sampledPropagated.process(statement, null, null, "benchmark");
+  }
+
+  static Tracing tracing(Sampler sampler) {
+    return Tracing.newBuilder().sampler(sampler).addSpanHandler(DROP).build();
+  }
+
+  static Statement<?> newStatement(String kind) {
+    switch (kind) {
+      case "simple":
+        return SimpleStatement.newInstance("SELECT * FROM app.users WHERE id = 1");
+      case "batch":
+        BatchStatement batch = BatchStatement.newInstance(BatchType.UNLOGGED);
+        for (int i = 0; i < 10; i++) {
+          batch = batch.add(SimpleStatement.newInstance("SELECT * FROM app.users WHERE id = 1"));
+        }
+        return batch;
+      default:
+        throw new IllegalArgumentException("unknown statement kind: " + kind);
+    }
+  }
+
+  /** Completes every statement immediately, so that callbacks run without being queued. */
+  static final class StubProcessor
+      implements RequestProcessor<Statement<?>, CompletionStage<AsyncResultSet>> {
+    // Proxies avoid implementing the many methods the instrumentation doesn't call.
+    final ExecutionInfo info = proxy(ExecutionInfo.class, null);
+    final CompletionStage<AsyncResultSet> result =
+        CompletableFuture.completedFuture(proxy(AsyncResultSet.class, info));
+
+    @Override public boolean canProcess(Request request, GenericType<?> resultType) {
+      return true;
+    }
+
+    @Override public CompletionStage<AsyncResultSet> process(Statement<?> request,
+        DefaultSession session, InternalDriverContext context, String sessionLogPrefix) {
+      return result;
+    }
+
+    @Override public CompletionStage<AsyncResultSet> newFailure(RuntimeException error) {
+      CompletableFuture<AsyncResultSet> result = new CompletableFuture<>();
+      result.completeExceptionally(error);
+      return result;
+    }
+
+    /** Returns a proxy whose methods return {@code info} if it is the right type, or null. */
+    static <T> T proxy(Class<T> type, ExecutionInfo info) {
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+          (proxy, method, args) -> method.getReturnType().isInstance(info) ? info : null));
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + TracingRequestProcessorBenchmarks.class.getSimpleName())
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.datastax.driver.core;
+
+import com.datastax.driver.core.policies.RetryPolicy;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/** A prepared statement made without a server round-trip. */
+final class StubPreparedStatement implements PreparedStatement {
+  final PreparedId preparedId;
+  final String keyspace, query;
+  final Cluster cluster;
+  volatile ConsistencyLevel consistency, serialConsistency;
+  volatile boolean tracing;
+  volatile RetryPolicy retryPolicy;
+  volatile Map<String, ByteBuffer> outgoingPayload;
+  volatile Boolean idempotent;
+  volatile ByteBuffer routingKey;
+
+  StubPreparedStatement(PreparedId preparedId, String keyspace, String query, Cluster cluster) {
+    this.preparedId = preparedId;
+    this.keyspace = keyspace;
+    this.query = query;
+    this.cluster = cluster;
+  }
+
+  @Override public ColumnDefinitions getVariables() {
+    return preparedId.boundValuesMetadata.variables;
+  }
+
+  @Override public BoundStatement bind(Object... values) {
+    return new BoundStatement(this).bind(values);
+  }
+
+  @Override public BoundStatement bind() {
+    return new BoundStatement(this);
+  }
+
+  @Override public PreparedStatement setRoutingKey(ByteBuffer routingKey) {
+    this.routingKey = routingKey;
+    return this;
+  }
+
+  @Override public PreparedStatement setRoutingKey(ByteBuffer... routingKeyComponents) {
+    this.routingKey = SimpleStatement.compose(routingKeyComponents);
+    return this;
+  }
+
+  @Override public ByteBuffer getRoutingKey() {
+    return routingKey;
+  }
+
+  @Override public PreparedStatement setConsistencyLevel(ConsistencyLevel consistency) {
+    this.consistency = consistency;
+    return this;
+  }
+
+  @Override public ConsistencyLevel getConsistencyLevel() {
+    return consistency;
+  }
+
+  @Override public PreparedStatement setSerialConsistencyLevel(ConsistencyLevel serialConsistency) {
+    this.serialConsistency = serialConsistency;
+    return this;
+  }
+
+  @Override public ConsistencyLevel getSerialConsistencyLevel() {
+    return serialConsistency;
+  }
+
+  @Override public String getQueryString() {
+    return query;
+  }
+
+  @Override public String getQueryKeyspace() {
+    return keyspace;
+  }
+
+  @Override public PreparedStatement enableTracing() {
+    tracing = true;
+    return this;
+  }
+
+  @Override public PreparedStatement disableTracing() {
+    tracing = false;
+    return this;
+  }
+
+  @Override public boolean isTracing() {
+    return tracing;
+  }
+
+  @Override public PreparedStatement setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+    return this;
+  }
+
+  @Override public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  @Override public PreparedId getPreparedId() {
+    return preparedId;
+  }
+
+  @Override public Map<String, ByteBuffer> getIncomingPayload() {
+    return null;
+  }
+
+  @Override public Map<String, ByteBuffer> getOutgoingPayload() {
+    return outgoingPayload;
+  }
+
+  @Override public PreparedStatement setOutgoingPayload(Map<String, ByteBuffer> payload) {
+    this.outgoingPayload = payload;
+    return this;
+  }
+
+  @Override public CodecRegistry getCodecRegistry() {
+    return CodecRegistry.DEFAULT_INSTANCE;
+  }
+
+  @Override public PreparedStatement setIdempotent(Boolean idempotent) {
+    this.idempotent = idempotent;
+    return this;
+  }
+
+  @Override public Boolean isIdempotent() {
+    return idempotent;
+  }
+}
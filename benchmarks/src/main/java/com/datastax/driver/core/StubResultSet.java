@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.datastax.driver.core;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/** An empty, single-page result. */
+final class StubResultSet implements ResultSet {
+  final ExecutionInfo executionInfo;
+
+  StubResultSet(ExecutionInfo executionInfo) {
+    this.executionInfo = executionInfo;
+  }
+
+  @Override public ColumnDefinitions getColumnDefinitions() {
+    return new ColumnDefinitions(new ColumnDefinitions.Definition[0],
+        CodecRegistry.DEFAULT_INSTANCE);
+  }
+
+  @Override public boolean wasApplied() {
+    return true;
+  }
+
+  @Override public boolean isExhausted() {
+    return true;
+  }
+
+  @Override public boolean isFullyFetched() {
+    return true;
+  }
+
+  @Override public int getAvailableWithoutFetching() {
+    return 0;
+  }
+
+  @Override public ListenableFuture<ResultSet> fetchMoreResults() {
+    return Futures.<ResultSet>immediateFuture(this);
+  }
+
+  @Override public Row one() {
+    return null;
+  }
+
+  @Override public List<Row> all() {
+    return Collections.emptyList();
+  }
+
+  @Override public Iterator<Row> iterator() {
+    return Collections.<Row>emptyList().iterator();
+  }
+
+  @Override public ExecutionInfo getExecutionInfo() {
+    return executionInfo;
+  }
+
+  @Override public List<ExecutionInfo> getAllExecutionInfo() {
+    return Collections.singletonList(executionInfo);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.datastax.driver.core;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A session that completes every statement immediately, so that benchmarks measure only the
+ * instrumentation. This is in the driver's package as several types it returns have package-private
+ * constructors.
+ */
+public final class StubSession extends AbstractSession {
+  final Cluster cluster = Cluster.builder()
+      .withClusterName("benchmark")
+      .addContactPointsWithPorts(new InetSocketAddress("127.0.0.1", 9042))
+      .withProtocolVersion(ProtocolVersion.V4)
+      .build();
+  final Host host = new Host(new TranslatedAddressEndPoint(new InetSocketAddress("127.0.0.1", 9042)),
+      new ConvictionPolicy.DefaultConvictionPolicy.Factory(), cluster.manager);
+  final ResultSetFuture result = new CompletedFuture(new StubResultSet(
+      new ExecutionInfo(0, 0, Collections.singletonList(host), ConsistencyLevel.ONE,
+          Collections.<String, ByteBuffer>emptyMap())));
+
+  /** Returns a prepared statement with no bind variables, as if returned by the server. */
+  public PreparedStatement prepared(String keyspace, String query) {
+    ColumnDefinitions variables =
+        new ColumnDefinitions(new ColumnDefinitions.Definition[0], CodecRegistry.DEFAULT_INSTANCE);
+    PreparedId.PreparedMetadata metadata =
+        new PreparedId.PreparedMetadata(MD5Digest.wrap(query.getBytes(UTF_8)), variables);
+    PreparedId id = new PreparedId(metadata, metadata, new int[0], ProtocolVersion.V4);
+    return new StubPreparedStatement(id, keyspace, query, cluster);
+  }
+
+  @Override public ResultSetFuture executeAsync(Statement statement) {
+    return result; // already complete, so listeners run without being queued
+  }
+
+  @Override protected ListenableFuture<PreparedStatement> prepareAsync(
+      String query, Map<String, ByteBuffer> customPayload) {
+    return Futures.immediateFuture(prepared(null, query));
+  }
+
+  @Override public ListenableFuture<PreparedStatement> prepareAsync(String query) {
+    return Futures.immediateFuture(prepared(null, query));
+  }
+
+  @Override public ListenableFuture<PreparedStatement> prepareAsync(RegularStatement statement) {
+    return Futures.immediateFuture(prepared(statement.getKeyspace(), statement.toString()));
+  }
+
+  @Override public String getLoggedKeyspace() {
+    return null;
+  }
+
+  @Override public Session init() {
+    return this;
+  }
+
+  @Override public ListenableFuture<Session> initAsync() {
+    return Futures.<Session>immediateFuture(this);
+  }
+
+  @Override public CloseFuture closeAsync() {
+    cluster.close();
+    return CloseFuture.immediateFuture();
+  }
+
+  @Override public boolean isClosed() {
+    return false;
+  }
+
+  @Override public Cluster getCluster() {
+    return cluster;
+  }
+
+  @Override public State getState() {
+    throw new UnsupportedOperationException();
+  }
+
+  static final class CompletedFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+    CompletedFuture(ResultSet resultSet) {
+      set(resultSet);
+    }
+
+    @Override public ResultSet getUninterruptibly() {
+      try {
+        return Uninterruptibles.getUninterruptibly(this);
+      } catch (ExecutionException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override public ResultSet getUninterruptibly(long timeout, TimeUnit unit)
+        throws TimeoutException {
+      try {
+        return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+      } catch (ExecutionException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
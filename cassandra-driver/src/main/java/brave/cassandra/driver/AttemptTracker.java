@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.QueryExecutionException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.UnpreparedException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static brave.Span.Kind.CLIENT;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_ATTEMPTS;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_ATTEMPT_OUTCOME;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_ATTEMPT_WINNER;
+
+/**
+ * Collects each attempt the driver makes for a sampled statement, including retries and
+ * speculative executions, and reports them as child spans when the statement completes. This also
+ * counts re-prepares, and annotates sampled statements that needed one.
+ *
+ * <p>The driver reports the latency of every attempt to {@link LatencyTracker}s, keyed by the
+ * statement executed. Attempts are buffered per in-flight statement, as the tracker is called on
+ * I/O threads which don't have the span in scope.
+ *
+ * <p>Listener order isn't relied on: the driver can report the attempt that succeeded after
+ * completing the future, and always reports cancelled speculative executions after it. On success,
+ * the count of executions is known, so the parent is tagged with the attempts still expected, the
+ * winner as if it were last, and late attempts are reported as children of the finished parent
+ * when they arrive. Statements awaiting late attempts are forgotten after a minute, as an
+ * execution cancelled before it sent its query is never reported. Late attempts of a failed
+ * statement aren't expected, so are dropped.
+ */
+final class AttemptTracker implements LatencyTracker {
+  /** The driver doesn't expose this type, so it is matched by name. */
+  static final String CANCELLED_SPECULATIVE_EXECUTION =
+      "com.datastax.driver.core.CancelledSpeculativeExecutionException";
+
+  final Tracing tracing;
+  final Tracer tracer;
+  final boolean reportAttempts;
+  @Nullable final RePrepareCounter rePrepares;
+  final ConcurrentMap<Statement, Attempts> inFlight = new ConcurrentHashMap<>();
+  /** Completed statements awaiting attempts reported after completion, by identity. */
+  final Cache<Statement, Attempts> awaitingLate = CacheBuilder.newBuilder()
+      .weakKeys()
+      .expireAfterWrite(1, TimeUnit.MINUTES)
+      .maximumSize(1000)
+      .build();
+
+  /**
+   * @param reportAttempts whether to report a child span per attempt
+   * @param rePrepares when present, counts re-prepares and annotates them on sampled statements
+   */
+  AttemptTracker(Tracing tracing, boolean reportAttempts, @Nullable RePrepareCounter rePrepares) {
+    this.tracing = tracing;
+    this.tracer = tracing.tracer();
+    this.reportAttempts = reportAttempts;
+    this.rePrepares = rePrepares;
+  }
+
+  /**
+   * Starts buffering attempts for the statement, or returns null if it is already in flight, as
+   * attempts of concurrent executions of the same instance can't be told apart. Late attempts of a
+   * previous execution of the same instance are attributed to this one.
+   */
+  @Nullable Attempts start(Statement statement, TraceContext context) {
+    Attempts attempts = new Attempts(statement, context);
+    if (inFlight.putIfAbsent(statement, attempts) != null) return null;
+    awaitingLate.invalidate(statement);
+    return attempts;
+  }
+
+  @Override public void update(Host host, Statement statement, Exception exception,
+      long newLatencyNanos) {
+    if (rePrepares != null && exception instanceof UnpreparedException) rePrepares.increment();
+    Attempts attempts = inFlight.get(statement);
+    if (attempts == null) attempts = awaitingLate.getIfPresent(statement);
+    if (attempts == null) return; // not sampled, from another session, or no longer expected
+    long endMicros = tracing.clock(attempts.context).currentTimeMicroseconds();
+    Attempt attempt = new Attempt(host, exception, endMicros - newLatencyNanos / 1000L, endMicros);
+    if (!attempts.add(attempt)) return; // buffered until completion
+    if (attempts.isDone()) awaitingLate.asMap().remove(statement, attempts);
+    // ex. the winner or a cancelled speculative execution
+    if (reportAttempts) report(attempts.context, attempt);
+  }
+
+  @Override public void onRegister(Cluster cluster) {
+  }
+
+  @Override public void onUnregister(Cluster cluster) {
+  }
+
+  /**
+   * Annotates each re-prepare on the parent. When reporting attempts, also reports a child span
+   * per attempt, and tags the parent with the attempt count and the index of the attempt that
+   * succeeded, if any.
+   *
+   * @param info present when the statement succeeded, so an attempt succeeded, even if the driver
+   * hasn't reported it yet
+   */
+  void finish(Attempts attempts, Span parent, @Nullable ExecutionInfo info) {
+    // each speculative execution ends with a success or a cancellation
+    int executions = info != null ? info.getSpeculativeExecutions() + 1 : 0;
+    List<Attempt> list = attempts.complete(reportAttempts ? executions : 0);
+    int late = attempts.late();
+    if (late > 0) awaitingLate.put(attempts.statement, attempts);
+    inFlight.remove(attempts.statement, attempts);
+    if (rePrepares != null) {
+      for (Attempt attempt : list) {
+        if (attempt.exception instanceof UnpreparedException) {
+          parent.annotate(attempt.endMicros, "reprepare");
+        }
+      }
+    }
+    if (!reportAttempts) return;
+    int count = list.size() + late, winner = winner(list);
+    if (winner == -1 && info != null) winner = count - 1; // not reported yet
+    parent.tag(CASSANDRA_ATTEMPTS, Integer.toString(count));
+    if (winner != -1) parent.tag(CASSANDRA_ATTEMPT_WINNER, Integer.toString(winner));
+    for (Attempt attempt : list) report(attempts.context, attempt);
+  }
+
+  static int winner(List<Attempt> list) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i).exception == null) return i;
+    }
+    return -1;
+  }
+
+  void report(TraceContext parent, Attempt attempt) {
+    Span span = tracer.newChild(parent).kind(CLIENT).name("attempt");
+    InetSocketAddress address = attempt.host.getSocketAddress();
+    span.remoteIpAndPort(address.getHostString(), address.getPort());
+    span.tag(CASSANDRA_ATTEMPT_OUTCOME, outcome(attempt.exception));
+    if (attempt.exception != null && !isCancelled(attempt.exception)) {
+      span.error(attempt.exception);
+    }
+    span.start(attempt.startMicros);
+    span.finish(attempt.endMicros);
+  }
+
+  static String outcome(@Nullable Exception exception) {
+    if (exception == null) return "success";
+    if (isCancelled(exception)) return "cancelled";
+    if (exception instanceof OperationTimedOutException
+        || exception instanceof ReadTimeoutException
+        || exception instanceof WriteTimeoutException) {
+      return "timeout";
+    }
+    if (exception instanceof OverloadedException) return "overloaded";
+    if (exception instanceof UnpreparedException) return "unprepared";
+    if (exception instanceof QueryExecutionException) return "rejected";
+    return "error";
+  }
+
+  /** Returns true if the attempt was a speculative execution cancelled as another one won. */
+  static boolean isCancelled(@Nullable Exception exception) {
+    return exception != null
+        && CANCELLED_SPECULATIVE_EXECUTION.equals(exception.getClass().getName());
+  }
+
+  static final class Attempts {
+    final Statement statement;
+    final TraceContext context;
+    final List<Attempt> list = new ArrayList<>(2);
+    boolean completed;
+    int late; // attempts expected after completion
+
+    Attempts(Statement statement, TraceContext context) {
+      this.statement = statement;
+      this.context = context;
+    }
+
+    /** Returns true if the attempt was reported after completion, which the caller reports. */
+    synchronized boolean add(Attempt attempt) {
+      if (!completed) {
+        list.add(attempt);
+        return false;
+      }
+      if (late > 0) late--;
+      return true;
+    }
+
+    /**
+     * Returns the attempts reported so far, expecting the rest of the executions to end late.
+     *
+     * @param executions the count of executions, each ending with a success or a cancellation, or
+     * zero if late attempts aren't expected
+     */
+    synchronized List<Attempt> complete(int executions) {
+      completed = true;
+      int ended = 0;
+      for (Attempt attempt : list) {
+        if (attempt.exception == null || isCancelled(attempt.exception)) ended++;
+      }
+      late = Math.max(0, executions - ended);
+      return new ArrayList<>(list);
+    }
+
+    synchronized int late() {
+      return late;
+    }
+
+    synchronized boolean isDone() {
+      return completed && late == 0;
+    }
+  }
+
+  static final class Attempt {
+    final Host host;
+    @Nullable final Exception exception;
+    final long startMicros, endMicros;
+
+    Attempt(Host host, @Nullable Exception exception, long startMicros, long endMicros) {
+      this.host = host;
+      this.exception = exception;
+      this.startMicros = startMicros;
+      this.endMicros = endMicros;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.SpanCustomizer;
+import brave.internal.Nullable;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.Configuration;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_BATCH_PARTITIONS;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_BATCH_SIZE;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_BATCH_TABLES;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_BATCH_TYPE;
+
+/**
+ * Summarizes the statements in a batch in one pass. Tables are read from cached metadata: per
+ * prepared statement, or per query string of simple and built statements.
+ */
+final class BatchSummary {
+  /**
+   * The driver doesn't expose the type of a batch, so it is read from a private field, looked up
+   * once. When the field is missing, of an unexpected type or inaccessible, such as a future driver
+   * or a module system denying access, the batch type simply isn't tagged.
+   */
+  @Nullable static final Field BATCH_TYPE = batchTypeField();
+
+  static void tag(BatchStatement batch, SpanCustomizer customizer) {
+    String type = batchType(batch);
+    if (type != null) customizer.tag(CASSANDRA_BATCH_TYPE, type);
+    customizer.tag(CASSANDRA_BATCH_SIZE, Integer.toString(batch.size()));
+
+    List<String> tables = new ArrayList<>(4); // batches usually touch few tables
+    Set<ByteBuffer> partitions = new HashSet<>();
+    for (Statement statement : batch.getStatements()) {
+      String table = table(statement);
+      if (table != null && !tables.contains(table)) tables.add(table);
+      ByteBuffer routingKey = encodedRoutingKey(statement);
+      if (routingKey != null) partitions.add(routingKey);
+    }
+
+    if (!tables.isEmpty()) customizer.tag(CASSANDRA_BATCH_TABLES, String.join(",", tables));
+    if (!partitions.isEmpty()) {
+      customizer.tag(CASSANDRA_BATCH_PARTITIONS, Integer.toString(partitions.size()));
+    }
+  }
+
+  @Nullable static String table(Statement statement) {
+    QueryMetadata metadata = metadata(statement);
+    return metadata != null ? metadata.table : null;
+  }
+
+  /** Returns the cached metadata of a bound, simple or built statement, or null if a batch. */
+  @Nullable static QueryMetadata metadata(Statement statement) {
+    if (statement instanceof BoundStatement) {
+      return QueryMetadata.of((BoundStatement) statement);
+    } else if (statement instanceof RegularStatement) {
+      return QueryMetadata.of((RegularStatement) statement);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the routing key of the statement, encoded with the cluster's protocol version and
+   * codecs, or null if it has none.
+   */
+  @Nullable static ByteBuffer routingKey(Statement statement, Cluster cluster) {
+    Configuration configuration = cluster.getConfiguration();
+    ProtocolVersion protocolVersion = configuration.getProtocolOptions().getProtocolVersion();
+    if (protocolVersion == null) return null; // not yet connected
+    try {
+      return statement.getRoutingKey(protocolVersion, configuration.getCodecRegistry());
+    } catch (RuntimeException e) {
+      return null; // ex. a partition key column wasn't bound
+    }
+  }
+
+  /**
+   * Returns the routing key of a statement that doesn't need the cluster's configuration to
+   * encode it. Bound statements hold values already encoded, and simple statements one set by the
+   * application. Built statements encode values with the cluster's codecs, which the parser doesn't
+   * know, so are skipped.
+   */
+  @Nullable static ByteBuffer encodedRoutingKey(Statement statement) {
+    if (!(statement instanceof BoundStatement || statement instanceof SimpleStatement)) {
+      return null;
+    }
+    try {
+      // arguments are ignored by these types
+      return statement.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
+          CodecRegistry.DEFAULT_INSTANCE);
+    } catch (RuntimeException e) {
+      return null; // ex. a partition key column wasn't bound
+    }
+  }
+
+  @Nullable static String batchType(BatchStatement batch) {
+    if (BATCH_TYPE == null) return null;
+    try {
+      Object type = BATCH_TYPE.get(batch);
+      return type != null ? type.toString() : null;
+    } catch (IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  @Nullable static Field batchTypeField() {
+    try {
+      Field result = BatchStatement.class.getDeclaredField("batchType");
+      if (result.getType() != BatchStatement.Type.class) return null;
+      result.setAccessible(true);
+      return result;
+    } catch (Exception e) { // ex. NoSuchFieldException, or InaccessibleObjectException on JPMS
+      return null;
+    }
+  }
+
+  private BatchSummary() {
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Runs tasks on a single, low priority daemon thread, draining them in batches. This is made for
+ * {@link CassandraClientTracing.Builder#completionExecutor(Executor)}, so that the driver's I/O
+ * threads only enqueue finished spans.
+ *
+ * <p>Submitting is lock-free: it adds to a {@link ConcurrentLinkedQueue}, and only wakes the
+ * thread if it is parked, so a busy queue doesn't cost a system call per span. Tasks run in the
+ * order they were submitted. Exceptions thrown by tasks are ignored.
+ *
+ * <p>The queue is bounded. When it is full, tasks run on the submitting thread, as they would
+ * without this executor, so they run out of order instead of being lost. If a task throws a fatal
+ * error, such as {@link OutOfMemoryError}, the thread exits, queued tasks are dropped and new
+ * ones are rejected.
+ *
+ * <pre>{@code
+ * completionExecutor = BatchingCompletionExecutor.create();
+ * cassandraClientTracing = cassandraClientTracing.toBuilder()
+ *     .completionExecutor(completionExecutor)
+ *     .build();
+ *
+ * // on shutdown, after closing the session
+ * completionExecutor.close();
+ * }</pre>
+ */
+public final class BatchingCompletionExecutor implements Executor, Closeable {
+  /** Tasks run before checking again whether the executor was closed. */
+  static final int MAX_BATCH = 256;
+
+  /** Returns an executor which queues up to 10000 tasks. */
+  public static BatchingCompletionExecutor create() {
+    return create(10000);
+  }
+
+  /** @param maxQueued tasks queued before further ones run on the submitting thread */
+  public static BatchingCompletionExecutor create(int maxQueued) {
+    if (maxQueued <= 0) throw new IllegalArgumentException("maxQueued <= 0");
+    BatchingCompletionExecutor result = new BatchingCompletionExecutor(maxQueued);
+    result.thread.start();
+    return result;
+  }
+
+  final int maxQueued;
+  final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  final AtomicInteger queued = new AtomicInteger(); // as the size of the queue isn't constant time
+  final AtomicBoolean parked = new AtomicBoolean();
+  final Thread thread;
+  volatile boolean closed, failed;
+
+  BatchingCompletionExecutor(int maxQueued) {
+    this.maxQueued = maxQueued;
+    thread = new Thread(this::drain, "BatchingCompletionExecutor");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+  }
+
+  @Override public void execute(Runnable task) {
+    if (task == null) throw new NullPointerException("task == null");
+    if (closed) throw new RejectedExecutionException(failed ? "failed" : "closed");
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      run(task);
+      return;
+    }
+    queue.offer(task);
+    // re-check, as the thread may have exited between the check above and the offer
+    if (closed && queue.remove(task)) {
+      queued.decrementAndGet();
+      throw new RejectedExecutionException(failed ? "failed" : "closed");
+    }
+    if (parked.get() && parked.compareAndSet(true, false)) LockSupport.unpark(thread);
+  }
+
+  void drain() {
+    try {
+      while (true) {
+        int ran = runBatch();
+        if (ran > 0) continue;
+        if (closed) return;
+        parked.set(true);
+        // re-check after publishing parked, so a task offered in between isn't missed
+        if (queue.isEmpty()) LockSupport.park(this);
+        parked.set(false);
+      }
+    } catch (RuntimeException | Error e) { // a fatal error, rethrown by runBatch
+      failed = true;
+      closed = true;
+      while (queue.poll() != null) queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** Returns the count of tasks run. */
+  int runBatch() {
+    int ran = 0;
+    Runnable task;
+    while (ran < MAX_BATCH && (task = queue.poll()) != null) {
+      queued.decrementAndGet();
+      ran++;
+      run(task);
+    }
+    return ran;
+  }
+
+  static void run(Runnable task) {
+    try {
+      task.run();
+    } catch (Throwable e) { // keep draining
+      propagateIfFatal(e);
+    }
+  }
+
+  /**
+   * Stops accepting tasks, and waits for queued ones to finish. A task submitted concurrently with
+   * this either runs or is rejected.
+   */
+  @Override public void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    return "BatchingCompletionExecutor{maxQueued=" + maxQueued + ", closed=" + closed + "}";
+  }
+}
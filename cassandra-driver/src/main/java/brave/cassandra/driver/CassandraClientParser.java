@@ -14,13 +14,17 @@
 package brave.cassandra.driver;
 
 import brave.SpanCustomizer;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.RegularStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Statement;
 import com.google.common.base.CaseFormat;
 
 import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_KEYSPACE;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_OPERATION;
 import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_QUERY;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_TABLE;
 
 /**
  * Provides reasonable defaults for the data contained in cassandra client spans. Subclass to
@@ -28,30 +32,72 @@ import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_QUERY;
  */
 public class CassandraClientParser {
 
+  /** Span names are derived from the statement type, so only computed once per type. */
+  static final ClassValue<String> SPAN_NAMES = new ClassValue<String>() {
+    @Override protected String computeValue(Class<?> type) {
+      return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_HYPHEN, type.getSimpleName());
+    }
+  };
+
   /**
    * Override to change what data from the statement are parsed into the span representing it. By
    * default, this sets the span name to the lower-camel case type name and tags {@link
-   * CassandraTraceKeys#CASSANDRA_KEYSPACE} and {@link CassandraTraceKeys#CASSANDRA_QUERY} for bound
-   * statements.
+   * CassandraTraceKeys#CASSANDRA_KEYSPACE}. For bound, simple and query builder statements, this
+   * also tags {@link CassandraTraceKeys#CASSANDRA_QUERY}, {@link
+   * CassandraTraceKeys#CASSANDRA_TABLE} and {@link CassandraTraceKeys#CASSANDRA_OPERATION}. For
+   * batch statements, this tags the operation and a summary of the statements in the batch, such as
+   * {@link CassandraTraceKeys#CASSANDRA_BATCH_SIZE}.
+   *
+   * <p>Data about a bound statement's query are parsed once per prepared statement, so this does
+   * not re-parse the same query on each request. The query of a simple or query builder statement
+   * is tagged as a fingerprint: literals are replaced with {@code ?}, so statements that only
+   * differ by their values share a tag. Fingerprints are cached by query, up to 1000 of them.
    *
-   * <p>If you only want to change the span name, you can override {@link #spanName(Statement)}
-   * instead.
+   * <p>If you only want to change the span name, you can override {@link #spanName(Statement,
+   * String)} instead.
    *
-   * @see #spanName(Statement)
+   * @see #spanName(Statement, String)
    */
   public void request(Statement statement, SpanCustomizer customizer) {
+    QueryMetadata metadata = null;
+    if (statement instanceof BoundStatement) {
+      metadata = QueryMetadata.of((BoundStatement) statement);
+    } else if (statement instanceof RegularStatement) {
+      metadata = QueryMetadata.of((RegularStatement) statement);
+    }
+    if (metadata != null) {
+      customizer.name(spanName(statement, metadata.query));
+      String keyspace = statement.getKeyspace();
+      if (keyspace == null) keyspace = metadata.keyspace;
+      if (keyspace != null) customizer.tag(CASSANDRA_KEYSPACE, keyspace);
+      customizer.tag(CASSANDRA_QUERY, metadata.query);
+      if (metadata.table != null) customizer.tag(CASSANDRA_TABLE, metadata.table);
+      if (metadata.operation != null) customizer.tag(CASSANDRA_OPERATION, metadata.operation);
+      return;
+    }
     customizer.name(spanName(statement));
     String keyspace = statement.getKeyspace();
-    if (keyspace != null) customizer.tag(CASSANDRA_KEYSPACE, statement.getKeyspace());
-    if (statement instanceof BoundStatement) {
-      BoundStatement bound = ((BoundStatement) statement);
-      customizer.tag(CASSANDRA_QUERY, bound.preparedStatement().getQueryString());
+    if (keyspace != null) customizer.tag(CASSANDRA_KEYSPACE, keyspace);
+    if (statement instanceof BatchStatement) {
+      customizer.tag(CASSANDRA_OPERATION, "BATCH");
+      BatchSummary.tag((BatchStatement) statement, customizer);
     }
   }
 
   /** Returns the span name of the statement. Defaults to the lower-camel case type name. */
   protected String spanName(Statement statement) {
-    return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_HYPHEN, statement.getClass().getSimpleName());
+    return SPAN_NAMES.get(statement.getClass());
+  }
+
+  /**
+   * Returns the span name of a statement with a known query, such as a bound or simple statement.
+   * Defaults to {@link #spanName(Statement)}.
+   *
+   * <p>The query is a prepared statement's CQL, or the fingerprint of other statements, so it has
+   * low cardinality. Ex. to name spans by query: {@code return query;}
+   */
+  protected String spanName(Statement statement, String query) {
+    return spanName(statement);
   }
 
   /** Override to parse data from the result set into the span modeling it. */
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.sampler.BoundarySampler;
+import brave.sampler.Matcher;
+import brave.sampler.RateLimitingSampler;
+import brave.sampler.Sampler;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Assigns sample rates to statements, based on rules evaluated in order. When no rule matches,
+ * the decision is deferred to the trace ID sampler. This is like {@code brave.http.HttpRuleSampler}
+ * for cassandra statements.
+ *
+ * <p>Ex. Here's a sampler that traces 10% of statements in the payments keyspace, and at most 1
+ * per second of selects from the analytics events table:
+ *
+ * <pre>{@code
+ * cassandraClientTracingBuilder.sampler(CassandraClientRuleSampler.newBuilder()
+ *   .putRule(keyspaceEquals("payments"), Sampler.create(0.1f))
+ *   .putRule(and(tableEquals("events"), operationEquals("SELECT")), RateLimitingSampler.create(1))
+ *   .build());
+ * }</pre>
+ *
+ * <p>{@link Sampler#create(float)} only accepts rates from 1%. For lower rates, such as 0.01%, use
+ * {@link BoundarySampler#create(float)}.
+ *
+ * <p>Rules are evaluated once per prepared statement, and the matching rule is cached, so sampling
+ * a bound statement costs a lookup, regardless of the count of rules. Hence, matchers should only
+ * depend on the query, like {@link StatementMatchers}. Other statements are evaluated each time.
+ */
+public final class CassandraClientRuleSampler extends CassandraClientSampler {
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    final List<Rule> rules = new ArrayList<>();
+
+    Builder() {
+    }
+
+    /**
+     * Adds or replaces the sampler of the matcher. Rules are evaluated in the order they were
+     * first added.
+     *
+     * @see Sampler#create(float)
+     * @see BoundarySampler#create(float)
+     * @see RateLimitingSampler#create(int)
+     */
+    public Builder putRule(Matcher<Statement> matcher, Sampler sampler) {
+      if (matcher == null) throw new NullPointerException("matcher == null");
+      if (sampler == null) throw new NullPointerException("sampler == null");
+      for (int i = 0; i < rules.size(); i++) {
+        if (rules.get(i).matcher.equals(matcher)) {
+          rules.set(i, new Rule(matcher, sampler));
+          return this;
+        }
+      }
+      rules.add(new Rule(matcher, sampler));
+      return this;
+    }
+
+    public CassandraClientRuleSampler build() {
+      return new CassandraClientRuleSampler(this);
+    }
+  }
+
+  static final class Rule {
+    final Matcher<Statement> matcher;
+    final Sampler sampler;
+
+    Rule(Matcher<Statement> matcher, Sampler sampler) {
+      this.matcher = matcher;
+      this.sampler = sampler;
+    }
+
+    @Override public String toString() {
+      return matcher + "=" + sampler;
+    }
+  }
+
+  /** Cached for prepared statements no rule matches, as the cache doesn't allow null values. */
+  static final Rule NO_MATCH = new Rule(statement -> false, Sampler.NEVER_SAMPLE);
+
+  final Rule[] rules;
+
+  // Like QueryMetadata.CACHE, weak keys compare by identity and allow collection.
+  final Cache<PreparedStatement, Rule> preparedRules = CacheBuilder.newBuilder()
+      .maximumSize(QueryMetadata.MAX_CACHED_STATEMENTS).weakKeys().build();
+
+  CassandraClientRuleSampler(Builder builder) {
+    rules = builder.rules.toArray(new Rule[0]);
+  }
+
+  @Override public Boolean trySample(Statement statement) {
+    Rule rule = ruleFor(statement);
+    if (rule == NO_MATCH) return null;
+    // The trace ID isn't known yet. A random one keeps trace ID samplers, such as BoundarySampler,
+    // probabilistic instead of making one decision for every statement.
+    return rule.sampler.isSampled(ThreadLocalRandom.current().nextLong());
+  }
+
+  Rule ruleFor(Statement statement) {
+    if (!(statement instanceof BoundStatement)) return match(statement);
+    PreparedStatement prepared = ((BoundStatement) statement).preparedStatement();
+    Rule result = preparedRules.getIfPresent(prepared);
+    if (result != null) return result;
+    result = match(statement);
+    preparedRules.put(prepared, result); // racing threads compute the same value
+    return result;
+  }
+
+  Rule match(Statement statement) {
+    for (Rule rule : rules) {
+      if (rule.matcher.matches(statement)) return rule;
+    }
+    return NO_MATCH;
+  }
+
+  @Override public String toString() {
+    StringBuilder result = new StringBuilder("CassandraClientRuleSampler{rules=[");
+    for (int i = 0; i < rules.length; i++) {
+      if (i > 0) result.append(", ");
+      result.append(rules[i]);
+    }
+    return result.append("]}").toString();
+  }
+}
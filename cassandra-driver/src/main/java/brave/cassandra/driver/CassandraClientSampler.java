@@ -53,6 +53,31 @@ public abstract class CassandraClientSampler implements SamplerFunction<Statemen
     }
   };
 
+  /**
+   * Returns a sampler which starts at most {@code tracesPerSecond} new traces for each query shape,
+   * tracking up to 1000 shapes.
+   *
+   * @see #rateLimitedPerQuery(int, int)
+   */
+  public static CassandraClientSampler rateLimitedPerQuery(int tracesPerSecond) {
+    return rateLimitedPerQuery(tracesPerSecond, 1000);
+  }
+
+  /**
+   * Returns a sampler which starts at most {@code tracesPerSecond} new traces for each query shape.
+   * This keeps a few hot queries from crowding rare ones out of the tracing budget.
+   *
+   * <p>The shape is the CQL of a prepared statement, or the CQL of a simple statement with its
+   * literal values replaced by placeholders. Other statements, such as batches, share a limit per
+   * statement type. Up to {@code maxQueries} shapes are tracked, forgetting the least recently
+   * used.
+   */
+  public static CassandraClientSampler rateLimitedPerQuery(int tracesPerSecond, int maxQueries) {
+    if (tracesPerSecond < 0) throw new IllegalArgumentException("tracesPerSecond < 0");
+    if (maxQueries < 0) throw new IllegalArgumentException("maxQueries < 0");
+    return new QueryRateLimitingSampler(tracesPerSecond, maxQueries);
+  }
+
   /**
    * Returns an overriding sampling decision for a new trace. Return null ignore the statement and
    * use the {@link brave.sampler.Sampler trace ID sampler}.
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which statements the head sampler skipped are still timed, and how slow they must be to
+ * be reported anyway. Statements that fail are reported regardless of latency.
+ *
+ * <p>Ex. Here's a tail sampler that reports batches slower than 50ms and anything else slower than
+ * 10ms.
+ *
+ * <pre>{@code
+ * cassandraClientTracingBuilder.tailSampler(new CassandraClientTailSampler() {
+ *   @Override public long thresholdNanos(Statement statement) {
+ *     return statement instanceof BatchStatement
+ *         ? TimeUnit.MILLISECONDS.toNanos(50) : TimeUnit.MILLISECONDS.toNanos(10);
+ *   }
+ * });
+ * }</pre>
+ *
+ * @see CassandraClientTracing#tailSampler()
+ */
+// abstract class as it lets us make helpers in the future
+public abstract class CassandraClientTailSampler {
+  /** Returns a tail sampler which reports any statement slower than the given threshold. */
+  public static CassandraClientTailSampler slowerThan(long threshold, TimeUnit unit) {
+    if (threshold < 0) throw new IllegalArgumentException("threshold < 0");
+    if (unit == null) throw new NullPointerException("unit == null");
+    final long thresholdNanos = unit.toNanos(threshold);
+    return new CassandraClientTailSampler() {
+      @Override public long thresholdNanos(Statement statement) {
+        return thresholdNanos;
+      }
+
+      @Override public String toString() {
+        return "SlowerThan(" + thresholdNanos + "ns)";
+      }
+    };
+  }
+
+  /**
+   * Returns the latency in nanoseconds above which an unsampled statement is reported, or a
+   * negative number to not time the statement at all.
+   */
+  public abstract long thresholdNanos(Statement statement);
+}
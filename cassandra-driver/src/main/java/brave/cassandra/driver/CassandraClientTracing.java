@@ -16,6 +16,7 @@ package brave.cassandra.driver;
 import brave.Tracing;
 import brave.internal.Nullable;
 import brave.propagation.Propagation;
+import java.util.concurrent.Executor;
 
 public final class CassandraClientTracing {
   public static CassandraClientTracing create(Tracing tracing) {
@@ -32,6 +33,20 @@ public final class CassandraClientTracing {
     CassandraClientParser parser = new CassandraClientParser();
     CassandraClientSampler sampler = CassandraClientSampler.TRACE_ID;
     boolean propagationEnabled = false;
+    boolean compactPropagationEnabled = false;
+    int batchAnnotationLimit = 0;
+    boolean pageTracingEnabled = false;
+    boolean attemptTracingEnabled = false;
+    boolean prepareTracingEnabled = false;
+    boolean hostEventTracingEnabled = false;
+    boolean hostLoadTaggingEnabled = false;
+    boolean replicaTrackingEnabled = false;
+    boolean lwtTracingEnabled = false;
+    CassandraClientTailSampler tailSampler;
+    QueryLatencies queryLatencies;
+    LatencyScoringPolicy latencyScoringPolicy;
+    Executor completionExecutor;
+    QueryTraceImporter queryTraceImporter;
     String remoteServiceName;
 
     Builder(Tracing tracing) {
@@ -43,6 +58,20 @@ public final class CassandraClientTracing {
       this.parser = source.parser;
       this.sampler = source.sampler;
       this.propagationEnabled = source.propagationEnabled;
+      this.compactPropagationEnabled = source.compactPropagationEnabled;
+      this.batchAnnotationLimit = source.batchAnnotationLimit;
+      this.pageTracingEnabled = source.pageTracingEnabled;
+      this.attemptTracingEnabled = source.attemptTracingEnabled;
+      this.prepareTracingEnabled = source.prepareTracingEnabled;
+      this.hostEventTracingEnabled = source.hostEventTracingEnabled;
+      this.hostLoadTaggingEnabled = source.hostLoadTaggingEnabled;
+      this.replicaTrackingEnabled = source.replicaTrackingEnabled;
+      this.lwtTracingEnabled = source.lwtTracingEnabled;
+      this.tailSampler = source.tailSampler;
+      this.queryLatencies = source.queryLatencies;
+      this.latencyScoringPolicy = source.latencyScoringPolicy;
+      this.completionExecutor = source.completionExecutor;
+      this.queryTraceImporter = source.queryTraceImporter;
       this.remoteServiceName = source.remoteServiceName;
     }
 
@@ -66,6 +95,93 @@ public final class CassandraClientTracing {
       return this;
     }
 
+    /** @see CassandraClientTracing#compactPropagationEnabled() */
+    public Builder compactPropagationEnabled(boolean compactPropagationEnabled) {
+      this.compactPropagationEnabled = compactPropagationEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#batchAnnotationLimit() */
+    public Builder batchAnnotationLimit(int batchAnnotationLimit) {
+      if (batchAnnotationLimit < 0) {
+        throw new IllegalArgumentException("batchAnnotationLimit < 0");
+      }
+      this.batchAnnotationLimit = batchAnnotationLimit;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#pageTracingEnabled() */
+    public Builder pageTracingEnabled(boolean pageTracingEnabled) {
+      this.pageTracingEnabled = pageTracingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#attemptTracingEnabled() */
+    public Builder attemptTracingEnabled(boolean attemptTracingEnabled) {
+      this.attemptTracingEnabled = attemptTracingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#prepareTracingEnabled() */
+    public Builder prepareTracingEnabled(boolean prepareTracingEnabled) {
+      this.prepareTracingEnabled = prepareTracingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#hostEventTracingEnabled() */
+    public Builder hostEventTracingEnabled(boolean hostEventTracingEnabled) {
+      this.hostEventTracingEnabled = hostEventTracingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#hostLoadTaggingEnabled() */
+    public Builder hostLoadTaggingEnabled(boolean hostLoadTaggingEnabled) {
+      this.hostLoadTaggingEnabled = hostLoadTaggingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#replicaTrackingEnabled() */
+    public Builder replicaTrackingEnabled(boolean replicaTrackingEnabled) {
+      this.replicaTrackingEnabled = replicaTrackingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#lwtTracingEnabled() */
+    public Builder lwtTracingEnabled(boolean lwtTracingEnabled) {
+      this.lwtTracingEnabled = lwtTracingEnabled;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#tailSampler() */
+    public Builder tailSampler(@Nullable CassandraClientTailSampler tailSampler) {
+      this.tailSampler = tailSampler;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#queryLatencies() */
+    public Builder queryLatencies(@Nullable QueryLatencies queryLatencies) {
+      this.queryLatencies = queryLatencies;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#latencyScoringPolicy() */
+    public Builder latencyScoringPolicy(@Nullable LatencyScoringPolicy latencyScoringPolicy) {
+      this.latencyScoringPolicy = latencyScoringPolicy;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#completionExecutor() */
+    public Builder completionExecutor(@Nullable Executor completionExecutor) {
+      this.completionExecutor = completionExecutor;
+      return this;
+    }
+
+    /** @see CassandraClientTracing#queryTraceImporter() */
+    public Builder queryTraceImporter(@Nullable QueryTraceImporter queryTraceImporter) {
+      this.queryTraceImporter = queryTraceImporter;
+      return this;
+    }
+
     public Builder remoteServiceName(@Nullable String remoteServiceName) {
       this.remoteServiceName = remoteServiceName;
       return this;
@@ -80,6 +196,20 @@ public final class CassandraClientTracing {
   final CassandraClientParser parser;
   final CassandraClientSampler sampler;
   final boolean propagationEnabled;
+  final boolean compactPropagationEnabled;
+  final int batchAnnotationLimit;
+  final boolean pageTracingEnabled;
+  final boolean attemptTracingEnabled;
+  final boolean prepareTracingEnabled;
+  final boolean hostEventTracingEnabled;
+  final boolean hostLoadTaggingEnabled;
+  final boolean replicaTrackingEnabled;
+  final boolean lwtTracingEnabled;
+  @Nullable final CassandraClientTailSampler tailSampler;
+  @Nullable final QueryLatencies queryLatencies;
+  @Nullable final LatencyScoringPolicy latencyScoringPolicy;
+  @Nullable final Executor completionExecutor;
+  @Nullable final QueryTraceImporter queryTraceImporter;
   @Nullable final String remoteServiceName;
 
   public Builder toBuilder() {
@@ -91,6 +221,20 @@ public final class CassandraClientTracing {
     this.parser = builder.parser;
     this.sampler = builder.sampler;
     this.propagationEnabled = builder.propagationEnabled;
+    this.compactPropagationEnabled = builder.compactPropagationEnabled;
+    this.batchAnnotationLimit = builder.batchAnnotationLimit;
+    this.pageTracingEnabled = builder.pageTracingEnabled;
+    this.attemptTracingEnabled = builder.attemptTracingEnabled;
+    this.prepareTracingEnabled = builder.prepareTracingEnabled;
+    this.hostEventTracingEnabled = builder.hostEventTracingEnabled;
+    this.hostLoadTaggingEnabled = builder.hostLoadTaggingEnabled;
+    this.replicaTrackingEnabled = builder.replicaTrackingEnabled;
+    this.lwtTracingEnabled = builder.lwtTracingEnabled;
+    this.tailSampler = builder.tailSampler;
+    this.queryLatencies = builder.queryLatencies;
+    this.latencyScoringPolicy = builder.latencyScoringPolicy;
+    this.completionExecutor = builder.completionExecutor;
+    this.queryTraceImporter = builder.queryTraceImporter;
     this.remoteServiceName = builder.remoteServiceName;
   }
 
@@ -141,6 +285,189 @@ public final class CassandraClientTracing {
     return propagationEnabled;
   }
 
+  /**
+   * When true, and {@link #propagationEnabled()}, the trace context is sent as 26 bytes under the
+   * payload key "tp", as opposed to the B3 single format under the key "b3". This saves about 30
+   * bytes per request, and the server doesn't need to decode characters to read it. Defaults to
+   * false.
+   *
+   * <p>Only enable this once every server has a version of {@code brave.cassandra.Tracing} that
+   * reads this format. Older versions only read "b3", so would start new traces instead.
+   */
+  public boolean compactPropagationEnabled() {
+    return compactPropagationEnabled;
+  }
+
+  /**
+   * The maximum count of statements in a sampled batch to annotate with their query, in order.
+   * Defaults to zero, which disables these annotations.
+   *
+   * <p>Statements in a batch execute together, so they are annotations on the batch span as
+   * opposed to child spans. Regardless of this setting, the batch span is tagged with a summary,
+   * such as the tables it writes.
+   */
+  public int batchAnnotationLimit() {
+    return batchAnnotationLimit;
+  }
+
+  /**
+   * When true, pages the driver fetches after the first are traced as child spans of the sampled
+   * request. Each is tagged with {@link CassandraTraceKeys#CASSANDRA_PAGE_SIZE} and the host
+   * queried. Defaults to false.
+   *
+   * <p>This applies to pages fetched while iterating and via {@link
+   * com.datastax.driver.core.ResultSet#fetchMoreResults()}. The client span of the request still
+   * finishes when the first page arrives.
+   */
+  public boolean pageTracingEnabled() {
+    return pageTracingEnabled;
+  }
+
+  /**
+   * When true, each attempt the driver makes for a sampled statement, including retries and
+   * speculative executions, is reported as an "attempt" child span. Each has the host queried,
+   * its own latency and a {@link CassandraTraceKeys#CASSANDRA_ATTEMPT_OUTCOME outcome}. The
+   * client span is tagged with the attempt count and the index of the attempt that succeeded.
+   * Defaults to false.
+   *
+   * <p>This registers a {@link com.datastax.driver.core.LatencyTracker} with the cluster, which
+   * is called for every attempt. Unsampled statements cost it a map lookup.
+   */
+  public boolean attemptTracingEnabled() {
+    return attemptTracingEnabled;
+  }
+
+  /**
+   * When true, preparing a statement is traced as a "prepare" client span, and statements the
+   * driver had to re-prepare, because a node didn't know them, are annotated "reprepare".
+   * Re-prepares are also counted by {@link TracingSession#rePrepares()}. Defaults to false.
+   *
+   * <p>Like {@link #attemptTracingEnabled()}, this registers a {@link
+   * com.datastax.driver.core.LatencyTracker} with the cluster.
+   */
+  public boolean prepareTracingEnabled() {
+    return prepareTracingEnabled;
+  }
+
+  /**
+   * When true, hosts going up, down, joining or leaving the cluster are reported as "host-up",
+   * "host-down", "host-add" or "host-remove" spans, tagged with the {@link
+   * CassandraTraceKeys#CASSANDRA_HOST host} and its data center. Sampled statements in flight at
+   * the time are annotated with these, as well as with "pool-busy" when the driver couldn't borrow
+   * a connection to a host in time. Defaults to false.
+   *
+   * <p>This registers a {@link com.datastax.driver.core.Host.StateListener} and a {@link
+   * com.datastax.driver.core.LatencyTracker} with the cluster. Unless an event happened, a sampled
+   * statement costs two volatile reads.
+   */
+  public boolean hostEventTracingEnabled() {
+    return hostEventTracingEnabled;
+  }
+
+  /**
+   * When true, sampled client spans are tagged with the {@link
+   * CassandraTraceKeys#CASSANDRA_IN_FLIGHT requests in flight} to the host that answered, and the
+   * {@link CassandraTraceKeys#CASSANDRA_POOL_UTILIZATION utilization} of its connection pool. A
+   * high utilization on a slow request points to client-side queueing rather than the server.
+   * Defaults to false.
+   *
+   * <p>The values come from a snapshot of {@link com.datastax.driver.core.Session#getState()}
+   * refreshed each second by a daemon thread per session, so may lag by up to a second.
+   */
+  public boolean hostLoadTaggingEnabled() {
+    return hostLoadTaggingEnabled;
+  }
+
+  /**
+   * When true, sampled client spans of statements with a routing key are tagged {@link
+   * CassandraTraceKeys#CASSANDRA_REPLICA} with whether the host that answered is a replica of the
+   * statement's partition. Every request is also counted by {@link TracingSession#replicaHits()}.
+   * Defaults to false.
+   *
+   * <p>Like {@link #attemptTracingEnabled()}, this registers a {@link
+   * com.datastax.driver.core.LatencyTracker} with the cluster. Replicas are looked up in a copy of
+   * the token ring, which doesn't allocate with the default Murmur3 partitioner.
+   */
+  public boolean replicaTrackingEnabled() {
+    return replicaTrackingEnabled;
+  }
+
+  /**
+   * When true, sampled client spans of lightweight transactions, such as {@code INSERT ... IF NOT
+   * EXISTS}, are tagged with {@link CassandraTraceKeys#CASSANDRA_LWT_APPLIED whether they applied}
+   * and their {@link CassandraTraceKeys#CASSANDRA_SERIAL_CONSISTENCY_LEVEL serial consistency
+   * level}. Ones that timed out in Paxos are tagged {@link
+   * CassandraTraceKeys#CASSANDRA_LWT_CAS_TIMEOUT}. Every statement is also counted per table by
+   * {@link TracingSession#lwtContention()}. Defaults to false.
+   *
+   * <p>Reading the {@code [applied]} column doesn't consume the row. Like {@link
+   * #queryLatencies()}, this costs a listener per request.
+   */
+  public boolean lwtTracingEnabled() {
+    return lwtTracingEnabled;
+  }
+
+  /**
+   * When set, statements the {@link #sampler()} didn't sample are still timed, and reported as a
+   * new trace if slower than the threshold this returns for them, or if they fail. Defaults to
+   * null, which disables this.
+   *
+   * <p>This catches latency outliers head sampling misses. Nothing is recorded until a statement
+   * completes, so fast statements cost a pooled listener. As the trace context sent downstream was
+   * unsampled, reported spans have no server side children.
+   */
+  @Nullable public CassandraClientTailSampler tailSampler() {
+    return tailSampler;
+  }
+
+  /**
+   * When set, the latency of every statement, sampled or not, is recorded here. Defaults to null,
+   * which disables this.
+   *
+   * <p>This costs a listener per request, and a histogram lookup when it completes.
+   */
+  @Nullable public QueryLatencies queryLatencies() {
+    return queryLatencies;
+  }
+
+  /**
+   * When set, the latency of every statement, sampled or not, is scored per host that answered
+   * it, so that the policy can move slow replicas back in query plans. This must be the same
+   * instance passed to {@link com.datastax.driver.core.Cluster.Builder#withLoadBalancingPolicy}.
+   * Defaults to null, which disables this.
+   *
+   * <p>Like {@link #queryLatencies()}, this costs a listener per request. Both share it.
+   */
+  @Nullable public LatencyScoringPolicy latencyScoringPolicy() {
+    return latencyScoringPolicy;
+  }
+
+  /**
+   * When set, sampled spans are finished on this executor, as opposed to the driver's I/O thread
+   * that completed the request. The I/O thread only records the finish timestamp and submits the
+   * span, so parsing the response, including with a custom {@link #parser()}, doesn't delay other
+   * requests on the same connection. Defaults to null, which finishes spans on the I/O thread.
+   *
+   * <p>{@link BatchingCompletionExecutor} is a low priority, single thread executor suited to
+   * this. Dependent stages of {@link TracingSession#executeStage} still run on the I/O thread.
+   */
+  @Nullable public Executor completionExecutor() {
+    return completionExecutor;
+  }
+
+  /**
+   * When set, Cassandra's own trace of each sampled statement that has {@linkplain
+   * com.datastax.driver.core.Statement#enableTracing() tracing enabled} is read from {@code
+   * system_traces} in the background, and reported as a child span of the client span. Defaults to
+   * null, which disables this.
+   *
+   * <p>This is an alternative to {@link #propagationEnabled()} when the server can't join the
+   * trace. Completing a request only enqueues its trace ID, so this doesn't add latency.
+   */
+  @Nullable public QueryTraceImporter queryTraceImporter() {
+    return queryTraceImporter;
+  }
+
   /**
    * Returns an overriding sampling decision for a new trace. Defaults to ignore the request and use
    * the {@link CassandraClientSampler#TRACE_ID trace ID instead}.
@@ -23,6 +23,129 @@ public final class CassandraTraceKeys {
    */
   public static final String CASSANDRA_QUERY = "cassandra.query";
 
+  /**
+   * The table a statement reads or writes, without the keyspace. Ex. "customers"
+   *
+   * <p>Used to aggregate latency by table
+   */
+  public static final String CASSANDRA_TABLE = "cassandra.table";
+
+  /**
+   * The type of CQL statement: "SELECT", "INSERT", "UPDATE", "DELETE" or "BATCH"
+   *
+   * <p>Used to aggregate latency by operation
+   */
+  public static final String CASSANDRA_OPERATION = "cassandra.operation";
+
+  /** The type of a batch statement: "LOGGED", "UNLOGGED" or "COUNTER" */
+  public static final String CASSANDRA_BATCH_TYPE = "cassandra.batch.type";
+
+  /** The count of statements in a batch statement. Ex. "50" */
+  public static final String CASSANDRA_BATCH_SIZE = "cassandra.batch.size";
+
+  /** Comma-separated tables written by a batch statement, in first-seen order. Ex. "users,emails" */
+  public static final String CASSANDRA_BATCH_TABLES = "cassandra.batch.tables";
+
+  /**
+   * The count of distinct routing keys in a batch statement. Ex. "12"
+   *
+   * <p>Used to understand how many partitions, and potentially replicas, a batch touches
+   */
+  public static final String CASSANDRA_BATCH_PARTITIONS = "cassandra.batch.partitions";
+
+  /** The count of rows in a page fetched after the first. Ex. "5000" */
+  public static final String CASSANDRA_PAGE_SIZE = "cassandra.page.size";
+
+  /**
+   * The count of attempts the driver made for a statement, including retries and speculative
+   * executions. Ex. "2"
+   */
+  public static final String CASSANDRA_ATTEMPTS = "cassandra.attempts";
+
+  /** The zero-based index of the attempt that succeeded, when one did. Ex. "1" */
+  public static final String CASSANDRA_ATTEMPT_WINNER = "cassandra.attempt.winner";
+
+  /**
+   * How an attempt ended: "success", "timeout", "overloaded", "cancelled" (another attempt won),
+   * "unprepared" (the statement was re-prepared), "rejected" (another server error) or "error"
+   */
+  public static final String CASSANDRA_ATTEMPT_OUTCOME = "cassandra.attempt.outcome";
+
+  /**
+   * The consistency level the driver achieved, when its retry policy downgraded the requested one.
+   * Ex. "ONE"
+   */
+  public static final String CASSANDRA_CONSISTENCY_LEVEL = "cassandra.consistency_level";
+
+  /** Warnings the server sent with the response, separated by newlines. */
+  public static final String CASSANDRA_WARNINGS = "cassandra.warnings";
+
+  /** The count of rows in the first page of the response. Ex. "5000" */
+  public static final String CASSANDRA_ROWS_AVAILABLE = "cassandra.rows_available";
+
+  /** "true" when the response has a paging state, so more pages can be fetched. */
+  public static final String CASSANDRA_HAS_MORE_PAGES = "cassandra.has_more_pages";
+
+  /** The count of hosts tried, when more than one, as with retries. Ex. "2" */
+  public static final String CASSANDRA_TRIED_HOSTS = "cassandra.tried_hosts";
+
+  /** The count of speculative executions started, when any. Ex. "1" */
+  public static final String CASSANDRA_SPECULATIVE_EXECUTIONS = "cassandra.speculative_executions";
+
+  /** The data center of the coordinator that answered. Ex. "us-east-1" */
+  public static final String CASSANDRA_DATACENTER = "cassandra.datacenter";
+
+  /** The rack of the coordinator that answered. Ex. "rack1" */
+  public static final String CASSANDRA_RACK = "cassandra.rack";
+
+  /** The host, as address and port, a host event span is about. Ex. "10.0.0.1:9042" */
+  public static final String CASSANDRA_HOST = "cassandra.host";
+
+  /**
+   * Requests in flight to the host that answered, as of the last load snapshot. Ex. "12"
+   *
+   * <p>Used with {@link #CASSANDRA_POOL_UTILIZATION} to tell client-side queueing from a slow
+   * server
+   */
+  public static final String CASSANDRA_IN_FLIGHT = "cassandra.in_flight";
+
+  /**
+   * The percentage of connection capacity to the host that answered in use, as of the last load
+   * snapshot. Ex. "85"
+   */
+  public static final String CASSANDRA_POOL_UTILIZATION = "cassandra.pool.utilization";
+
+  /**
+   * "true" when the host that answered is a replica of the statement's partition, or "false" when
+   * it had to forward the request to one. Only tagged when the statement has a routing key.
+   *
+   * <p>Used to find requests {@link com.datastax.driver.core.policies.TokenAwarePolicy} didn't
+   * route, which pay an extra network hop
+   */
+  public static final String CASSANDRA_REPLICA = "cassandra.replica";
+
+  /**
+   * Whether a lightweight transaction's condition was met, from its {@code [applied]} column:
+   * "true" or "false"
+   */
+  public static final String CASSANDRA_LWT_APPLIED = "cassandra.lwt.applied";
+
+  /**
+   * "true" when a lightweight transaction timed out in its Paxos phase, usually because other
+   * clients were updating the same partition
+   */
+  public static final String CASSANDRA_LWT_CAS_TIMEOUT = "cassandra.lwt.cas_timeout";
+
+  /** The serial consistency level of a lightweight transaction: "SERIAL" or "LOCAL_SERIAL" */
+  public static final String CASSANDRA_SERIAL_CONSISTENCY_LEVEL =
+      "cassandra.serial_consistency_level";
+
+  /** The session ID of an imported server-side query trace, in {@code system_traces}. */
+  public static final String CASSANDRA_TRACE_SESSION_ID = "cassandra.trace.session_id";
+
+  /** The coordinator of an imported server-side query trace. Ex. "10.0.0.1" */
+  public static final String CASSANDRA_TRACE_COORDINATOR = "cassandra.trace.coordinator";
+
   private CassandraTraceKeys() {
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.SpanCustomizer;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ResultSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_CONSISTENCY_LEVEL;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_DATACENTER;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_HAS_MORE_PAGES;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_RACK;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_ROWS_AVAILABLE;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_SPECULATIVE_EXECUTIONS;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_TRIED_HOSTS;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_WARNINGS;
+
+/**
+ * Adds response tags from data the driver already has, such as the achieved consistency level and
+ * the coordinator's data center. Use this as the {@link CassandraClientTracing#parser() parser},
+ * or subclass it to add more.
+ *
+ * <p>Values are read without fetching more results, and are constants or strings the driver
+ * already holds. Numbers are formatted once and cached, so the common case doesn't allocate.
+ * Server warnings are the exception: they are joined when present, which is rare.
+ */
+public class ExecutionInfoParser extends CassandraClientParser {
+  /** Counts up to the driver's default fetch size are cached. */
+  static final int MAX_CACHED_COUNT = 5000;
+  static final AtomicReferenceArray<String> COUNTS =
+      new AtomicReferenceArray<>(MAX_CACHED_COUNT + 1);
+
+  /**
+   * Adds the tags below, in addition to any added by {@link CassandraClientParser#response}.
+   *
+   * <ul>
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_CONSISTENCY_LEVEL} when the driver downgraded it
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_WARNINGS} when the server sent any
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_ROWS_AVAILABLE} in the first page
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_HAS_MORE_PAGES}
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_TRIED_HOSTS} when there was more than one
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_SPECULATIVE_EXECUTIONS} when there were any
+   *   <li>{@link CassandraTraceKeys#CASSANDRA_DATACENTER} and {@link
+   *   CassandraTraceKeys#CASSANDRA_RACK} of the coordinator
+   * </ul>
+   */
+  @Override public void response(ResultSet resultSet, SpanCustomizer customizer) {
+    super.response(resultSet, customizer);
+    ExecutionInfo info = resultSet.getExecutionInfo();
+    ConsistencyLevel achieved = info.getAchievedConsistencyLevel();
+    if (achieved != null) customizer.tag(CASSANDRA_CONSISTENCY_LEVEL, achieved.name());
+    List<String> warnings = info.getWarnings();
+    if (warnings != null && !warnings.isEmpty()) {
+      customizer.tag(CASSANDRA_WARNINGS, warnings.size() == 1 ? warnings.get(0)
+          : String.join("\n", warnings));
+    }
+    customizer.tag(CASSANDRA_ROWS_AVAILABLE, count(resultSet.getAvailableWithoutFetching()));
+    // the raw bytes, as getPagingState() copies and hashes them into a safe paging state
+    customizer.tag(CASSANDRA_HAS_MORE_PAGES,
+        info.getPagingStateUnsafe() != null ? "true" : "false");
+    List<Host> triedHosts = info.getTriedHosts();
+    if (triedHosts.size() > 1) customizer.tag(CASSANDRA_TRIED_HOSTS, count(triedHosts.size()));
+    int speculativeExecutions = info.getSpeculativeExecutions();
+    if (speculativeExecutions > 0) {
+      customizer.tag(CASSANDRA_SPECULATIVE_EXECUTIONS, count(speculativeExecutions));
+    }
+    Host coordinator = info.getQueriedHost();
+    if (coordinator != null) {
+      String datacenter = coordinator.getDatacenter(), rack = coordinator.getRack();
+      if (datacenter != null) customizer.tag(CASSANDRA_DATACENTER, datacenter);
+      if (rack != null) customizer.tag(CASSANDRA_RACK, rack);
+    }
+  }
+
+  /** Returns a cached decimal string of the count, formatting it on first use. */
+  static String count(int count) {
+    if (count < 0 || count > MAX_CACHED_COUNT) return Integer.toString(count);
+    String result = COUNTS.get(count);
+    if (result == null) {
+      result = Integer.toString(count);
+      COUNTS.set(count, result); // racing threads format the same value
+    }
+    return result;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import com.datastax.driver.core.Configuration;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.Session;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_IN_FLIGHT;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_POOL_UTILIZATION;
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Tags client spans with the load on the host that answered, from a copy of {@link
+ * Session#getState()} refreshed every {@value #REFRESH_MILLIS} milliseconds by a daemon thread.
+ *
+ * <p>{@link Session#getState()} allocates a copy of every pool, so isn't called per request. The
+ * refresh replaces an immutable map of host to load, which requests read without locking.
+ */
+final class HostLoadSnapshot implements Closeable {
+  static final long REFRESH_MILLIS = 1000L;
+
+  static HostLoadSnapshot create(Session session) {
+    HostLoadSnapshot result = new HostLoadSnapshot(session);
+    result.executor.scheduleWithFixedDelay(
+        result::refresh, 0L, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    return result;
+  }
+
+  final Session session;
+  final ScheduledThreadPoolExecutor executor;
+  volatile Map<Host, HostLoad> loads = Collections.emptyMap();
+
+  HostLoadSnapshot(Session session) {
+    this.session = session;
+    executor = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "HostLoadSnapshot");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /** Tags the in-flight count and pool utilization of the host, if known. */
+  void tag(Host host, Span span) {
+    HostLoad load = loads.get(host);
+    if (load == null) return;
+    span.tag(CASSANDRA_IN_FLIGHT, load.inFlight);
+    span.tag(CASSANDRA_POOL_UTILIZATION, load.utilization);
+  }
+
+  void refresh() {
+    try {
+      Session.State state = session.getState();
+      Configuration configuration = session.getCluster().getConfiguration();
+      Map<Host, HostLoad> result = new HashMap<>();
+      for (Host host : state.getConnectedHosts()) {
+        HostDistance distance =
+            configuration.getPolicies().getLoadBalancingPolicy().distance(host);
+        int maxPerConnection =
+            configuration.getPoolingOptions().getMaxRequestsPerConnection(distance);
+        result.put(host, new HostLoad(state.getInFlightQueries(host),
+            state.getOpenConnections(host), maxPerConnection));
+      }
+      loads = result;
+    } catch (Throwable e) { // don't cancel the schedule, ex. when the cluster is closing
+      propagateIfFatal(e);
+    }
+  }
+
+  @Override public void close() {
+    executor.shutdownNow();
+    loads = Collections.emptyMap();
+  }
+
+  /** Values are pre-formatted, as they are tagged on each sampled request. */
+  static final class HostLoad {
+    final String inFlight, utilization;
+
+    HostLoad(int inFlight, int openConnections, int maxPerConnection) {
+      this.inFlight = String.valueOf(inFlight);
+      long capacity = (long) openConnections * maxPerConnection;
+      this.utilization = String.valueOf(capacity > 0 ? inFlight * 100L / capacity : 0L);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_DATACENTER;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_HOST;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_RACK;
+
+/**
+ * Records host state changes and connection pool saturation, so that sampled requests in flight
+ * when they happened can be annotated with them, such as "host-down 10.0.0.1:9042".
+ *
+ * <p>Events are numbered and written to a fixed-size ring. A request reads the latest number when
+ * it starts and again when it finishes, so unless an event happened meanwhile, annotating costs a
+ * volatile read. Host state changes are also reported as "host-up", "host-down", "host-add" or
+ * "host-remove" spans of their own, tagged with the host and its data center.
+ *
+ * <p>Events happen outside any trace, so their time is recorded with {@link System#nanoTime()}, and
+ * converted to the {@link Tracing#clock(brave.propagation.TraceContext) clock} of the span they are
+ * annotated on. This way, annotations agree with span timestamps, even with a custom clock.
+ *
+ * <p>Pool saturation is when the driver couldn't borrow a connection to a host in time, reported
+ * as a {@link BusyPoolException} to {@link LatencyTracker}s. It is recorded as "pool-busy", at
+ * most once a second per host, as it tends to happen in bursts.
+ */
+final class HostMonitor implements Host.StateListener, LatencyTracker {
+  /** Events annotated on a request are the most recent, up to this count. */
+  static final int RING_SIZE = 64; // power of two
+  static final long BUSY_INTERVAL_NANOS = 1000000000L;
+
+  final Tracing tracing;
+  final Tracer tracer;
+  final AtomicLong sequence = new AtomicLong();
+  final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<>(RING_SIZE);
+  final ConcurrentMap<Host, HostState> hosts = new ConcurrentHashMap<>();
+
+  HostMonitor(Tracing tracing) {
+    this.tracing = tracing;
+    this.tracer = tracing.tracer();
+  }
+
+  /** Returns the number of the latest event, to pass to {@link #annotateSince}. */
+  long sequence() {
+    return sequence.get();
+  }
+
+  /** Annotates events since the sequence was read, if any. */
+  void annotateSince(long since, Span span) {
+    long latest = sequence.get();
+    if (latest == since) return;
+    long nowMicros = tracing.clock(span.context()).currentTimeMicroseconds();
+    long nowNanos = System.nanoTime();
+    for (long i = Math.max(since, latest - RING_SIZE) + 1; i <= latest; i++) {
+      Event event = ring.get((int) (i & (RING_SIZE - 1)));
+      // skip events overwritten, or not yet written by a concurrent record
+      if (event == null || event.sequence != i) continue;
+      span.annotate(nowMicros - (nowNanos - event.nanoTime) / 1000L, event.value);
+    }
+  }
+
+  void record(String name, Host host, long nanoTime) {
+    Event event = new Event(sequence.incrementAndGet(), nanoTime, name + " " + address(host));
+    ring.set((int) (event.sequence & (RING_SIZE - 1)), event);
+  }
+
+  /** Records the change, and reports it as a span, unless the host was already in that state. */
+  void stateChanged(String name, Host host, boolean up) {
+    HostState state = hostState(host);
+    if (state.up == up && ("host-up".equals(name) || "host-down".equals(name))) return;
+    state.up = up;
+    record(name, host, System.nanoTime());
+
+    Span span = tracer.newTrace().name(name);
+    if (span.isNoop()) return;
+    long timestamp = tracing.clock(span.context()).currentTimeMicroseconds();
+    span.tag(CASSANDRA_HOST, address(host));
+    String datacenter = host.getDatacenter(), rack = host.getRack();
+    if (datacenter != null) span.tag(CASSANDRA_DATACENTER, datacenter);
+    if (rack != null) span.tag(CASSANDRA_RACK, rack);
+    span.start(timestamp).finish(timestamp + 1L);
+  }
+
+  HostState hostState(Host host) {
+    HostState result = hosts.get(host);
+    if (result != null) return result;
+    HostState created = new HostState();
+    result = hosts.putIfAbsent(host, created);
+    return result != null ? result : created;
+  }
+
+  static String address(Host host) {
+    InetSocketAddress address = host.getSocketAddress();
+    return address.getHostString() + ":" + address.getPort();
+  }
+
+  @Override public void update(Host host, Statement statement, Exception exception,
+      long newLatencyNanos) {
+    if (!(exception instanceof BusyPoolException)) return;
+    HostState state = hostState(host);
+    long nanoTime = System.nanoTime();
+    long lastBusy = state.lastBusy;
+    if (lastBusy != 0L && nanoTime - lastBusy < BUSY_INTERVAL_NANOS) return;
+    state.lastBusy = nanoTime; // a racing update may also record, which is harmless
+    record("pool-busy", host, nanoTime);
+  }
+
+  @Override public void onAdd(Host host) {
+    stateChanged("host-add", host, true);
+  }
+
+  @Override public void onUp(Host host) {
+    stateChanged("host-up", host, true);
+  }
+
+  @Override public void onDown(Host host) {
+    stateChanged("host-down", host, false);
+  }
+
+  @Override public void onRemove(Host host) {
+    stateChanged("host-remove", host, false);
+    hosts.remove(host);
+  }
+
+  @Override public void onRegister(Cluster cluster) {
+  }
+
+  @Override public void onUnregister(Cluster cluster) {
+  }
+
+  /** Read and written without locking, as a lost update at worst duplicates an event. */
+  static final class HostState {
+    volatile boolean up = true;
+    volatile long lastBusy; // zero until busy
+  }
+
+  static final class Event {
+    final long sequence, nanoTime;
+    final String value;
+
+    Event(long sequence, long nanoTime, String value) {
+      this.sequence = sequence;
+      this.nanoTime = nanoTime;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear histogram of latencies, similar to HdrHistogram. Recording is lock-free:
+ * it increments one counter.
+ *
+ * <p>Values are recorded in microseconds, up to about 71 minutes. Below 64µs each bucket is one
+ * microsecond wide. Above that, each power of two is split into 32 buckets, so any value is within
+ * about 3% of the bucket it is counted in.
+ */
+final class LatencyHistogram {
+  static final int SUB_BUCKET_BITS = 6, SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  static final int HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  /** Values are clamped to 2^32 - 1 microseconds. */
+  static final int MAX_VALUE_BITS = 32;
+  static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * HALF_COUNT;
+
+  final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  void recordNanos(long durationNanos) {
+    counts.getAndIncrement(index(TimeUnit.NANOSECONDS.toMicros(durationNanos)));
+  }
+
+  static int index(long micros) {
+    if (micros < SUB_BUCKET_COUNT) return micros < 0 ? 0 : (int) micros;
+    if (micros >= 1L << MAX_VALUE_BITS) micros = (1L << MAX_VALUE_BITS) - 1;
+    // shift so the value has SUB_BUCKET_BITS significant bits, the highest of which is set
+    int shift = 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    int subBucket = (int) (micros >>> shift) - HALF_COUNT;
+    return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + subBucket;
+  }
+
+  /** Returns the highest value in microseconds counted in the bucket at this index. */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKET_COUNT) return index;
+    int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * Copies the counts, optionally zeroing them. Concurrent recordings are counted in either this
+   * copy or the next, never lost.
+   */
+  long[] copy(boolean reset) {
+    long[] result = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      result[i] = reset ? counts.getAndSet(i, 0L) : counts.get(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Records the latency of a request into {@link QueryLatencies} and {@link LatencyScoringPolicy},
+ * and its lightweight transaction outcome into {@link LwtContentionCounter}, when its future
+ * completes, whether or not it was sampled.
+ */
+final class LatencyRecorder implements Runnable {
+  static void addTo(ResultSetFuture future, Statement statement, long startNanos,
+      TracingSession session) {
+    future.addListener(new LatencyRecorder(future, statement, startNanos, session),
+        MoreExecutors.directExecutor());
+  }
+
+  final ResultSetFuture future;
+  final Statement statement;
+  final long startNanos;
+  final TracingSession session;
+
+  LatencyRecorder(ResultSetFuture future, Statement statement, long startNanos,
+      TracingSession session) {
+    this.future = future;
+    this.statement = statement;
+    this.startNanos = startNanos;
+    this.session = session;
+  }
+
+  @Override public void run() {
+    long durationNanos = System.nanoTime() - startNanos;
+    Host host = null;
+    ResultSet result = null;
+    Throwable error = null;
+    try {
+      result = Uninterruptibles.getUninterruptibly(future);
+      ExecutionInfo info = result.getExecutionInfo();
+      if (info != null) host = info.getQueriedHost();
+    } catch (ExecutionException e) { // failures have no queried host
+      error = e.getCause();
+    } catch (RuntimeException e) {
+      error = e;
+    }
+    QueryLatencies latencies = session.queryLatencies;
+    if (latencies != null) latencies.record(statement, host, durationNanos);
+    LatencyScoringPolicy scoringPolicy = session.latencyScoringPolicy;
+    if (scoringPolicy != null && host != null) scoringPolicy.update(host, durationNanos);
+    LwtContentionCounter lwtContention = session.lwtContention;
+    if (lwtContention != null) lwtContention.record(statement, result, error);
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.ChainableLoadBalancingPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.collect.AbstractIterator;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Moves replicas that are much slower than the fastest replica of a statement behind the other
+ * replicas in the query plan of its child policy, usually a {@link
+ * com.datastax.driver.core.policies.TokenAwarePolicy}. Hosts that aren't replicas keep their order.
+ *
+ * <p>Unlike {@link com.datastax.driver.core.policies.LatencyAwarePolicy}, this doesn't time
+ * requests itself. Instead, {@link TracingSession} feeds it the latency of each request it
+ * already measures, sampled or not, so it must be configured in both places:
+ *
+ * <pre>{@code
+ * policy = LatencyScoringPolicy.create(
+ *     new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()));
+ * cluster = Cluster.builder().withLoadBalancingPolicy(policy)...build();
+ * cassandraClientTracing = cassandraClientTracing.toBuilder().latencyScoringPolicy(policy).build();
+ * session = TracingSession.create(cassandraClientTracing, cluster.connect());
+ * }</pre>
+ *
+ * <p>Each host's score is an exponentially decaying average of the latency of requests it
+ * answered, kept in arrays indexed by host, which are read and updated without locking. A host
+ * needs {@value #MIN_MEASUREMENTS} measurements before it's scored, and its score is forgotten
+ * when older than the {@linkplain Builder#retryPeriod(long, TimeUnit) retry period}. Replicas
+ * without a score are never moved, so that new, restarted and slow hosts are measured again.
+ *
+ * <p>Replicas are looked up like {@link TracingSession} does when tracking replica hits, without
+ * allocating a token per request. Statements without a keyspace or routing key keep the child's
+ * query plan.
+ */
+public final class LatencyScoringPolicy implements ChainableLoadBalancingPolicy {
+  static final int MIN_MEASUREMENTS = 50;
+  static final double UNSCORED = Double.NaN;
+
+  public static LatencyScoringPolicy create(LoadBalancingPolicy childPolicy) {
+    return newBuilder(childPolicy).build();
+  }
+
+  public static Builder newBuilder(LoadBalancingPolicy childPolicy) {
+    if (childPolicy == null) throw new NullPointerException("childPolicy == null");
+    return new Builder(childPolicy);
+  }
+
+  public static final class Builder {
+    final LoadBalancingPolicy childPolicy;
+    double exclusionThreshold = 2.0;
+    long scaleNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    long retryPeriodNanos = TimeUnit.SECONDS.toNanos(10);
+
+    Builder(LoadBalancingPolicy childPolicy) {
+      this.childPolicy = childPolicy;
+    }
+
+    /**
+     * A replica is moved back when its score is more than this multiple of the fastest replica's.
+     * Defaults to 2.
+     */
+    public Builder exclusionThreshold(double exclusionThreshold) {
+      if (exclusionThreshold < 1.0) throw new IllegalArgumentException("exclusionThreshold < 1");
+      this.exclusionThreshold = exclusionThreshold;
+      return this;
+    }
+
+    /**
+     * How quickly old measurements stop counting. A measurement taken this long after the previous
+     * one weighs about 63% of the average. Defaults to 100 milliseconds.
+     */
+    public Builder scale(long scale, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (scale <= 0) throw new IllegalArgumentException("scale <= 0");
+      this.scaleNanos = unit.toNanos(scale);
+      return this;
+    }
+
+    /**
+     * How long a score is used without new measurements. A replica moved back gets few requests,
+     * so after this period it's tried again in its normal order. Defaults to 10 seconds.
+     */
+    public Builder retryPeriod(long retryPeriod, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (retryPeriod <= 0) throw new IllegalArgumentException("retryPeriod <= 0");
+      this.retryPeriodNanos = unit.toNanos(retryPeriod);
+      return this;
+    }
+
+    public LatencyScoringPolicy build() {
+      return new LatencyScoringPolicy(this);
+    }
+  }
+
+  final LoadBalancingPolicy childPolicy;
+  final double exclusionThreshold;
+  final long scaleNanos, retryPeriodNanos;
+  final ConcurrentMap<Host, Integer> indexes = new ConcurrentHashMap<>();
+  final Scores scores = new Scores();
+  volatile Cluster cluster;
+  volatile ReplicaTracker replicaTracker;
+
+  LatencyScoringPolicy(Builder builder) {
+    childPolicy = builder.childPolicy;
+    exclusionThreshold = builder.exclusionThreshold;
+    scaleNanos = builder.scaleNanos;
+    retryPeriodNanos = builder.retryPeriodNanos;
+  }
+
+  @Override public LoadBalancingPolicy getChildPolicy() {
+    return childPolicy;
+  }
+
+  @Override public void init(Cluster cluster, Collection<Host> hosts) {
+    this.cluster = cluster;
+    ReplicaTracker replicaTracker = new ReplicaTracker(cluster);
+    cluster.register(replicaTracker.schemaListener);
+    this.replicaTracker = replicaTracker;
+    childPolicy.init(cluster, hosts);
+  }
+
+  @Override public HostDistance distance(Host host) {
+    return childPolicy.distance(host);
+  }
+
+  @Override public Iterator<Host> newQueryPlan(String loggedKeyspace, Statement statement) {
+    Iterator<Host> plan = childPolicy.newQueryPlan(loggedKeyspace, statement);
+    Set<Host> replicas = replicas(loggedKeyspace, statement);
+    if (replicas == null || replicas.size() < 2) return plan;
+
+    long now = System.nanoTime();
+    return deferSlowReplicas(plan, replicas, host -> score(host, now), exclusionThreshold);
+  }
+
+  @SuppressWarnings("unchecked") // rings hold the hosts returned by Metadata.getReplicas
+  @Nullable Set<Host> replicas(String loggedKeyspace, Statement statement) {
+    ReplicaTracker replicaTracker = this.replicaTracker;
+    String keyspace = statement.getKeyspace();
+    if (keyspace == null) keyspace = loggedKeyspace;
+    if (replicaTracker == null || keyspace == null) return null;
+    return (Set<Host>) replicaTracker.replicas(keyspace, statement);
+  }
+
+  /**
+   * Returns the plan, except replicas whose score is over the threshold of the fastest replica
+   * wait for the next non-replica. Replicas without a score are never moved.
+   */
+  static <H> Iterator<H> deferSlowReplicas(Iterator<H> plan, Set<H> replicas,
+      ToDoubleFunction<H> scores, double exclusionThreshold) {
+    double fastest = Double.MAX_VALUE;
+    for (H replica : replicas) {
+      double score = scores.applyAsDouble(replica);
+      if (score < fastest) fastest = score; // false when unscored
+    }
+    if (fastest == Double.MAX_VALUE) return plan; // no replica is scored
+
+    double threshold = fastest * exclusionThreshold;
+    Set<H> slow = null;
+    for (H replica : replicas) {
+      if (!(scores.applyAsDouble(replica) > threshold)) continue; // unscored is never slow
+      if (slow == null) slow = new HashSet<>(4);
+      slow.add(replica);
+    }
+    if (slow == null) return plan;
+    return new DeferSlowReplicas<>(plan, replicas, slow);
+  }
+
+  /** Records the latency of a request the host answered. */
+  void update(Host host, long latencyNanos) {
+    scores.update(index(host), latencyNanos, System.nanoTime(), scaleNanos);
+  }
+
+  @Override public void onAdd(Host host) {
+    invalidateReplicas();
+    childPolicy.onAdd(host);
+  }
+
+  @Override public void onUp(Host host) {
+    reset(host); // a restarted host may perform differently
+    childPolicy.onUp(host);
+  }
+
+  @Override public void onDown(Host host) {
+    childPolicy.onDown(host);
+  }
+
+  @Override public void onRemove(Host host) {
+    reset(host);
+    invalidateReplicas();
+    childPolicy.onRemove(host);
+  }
+
+  @Override public void close() {
+    Cluster cluster = this.cluster;
+    ReplicaTracker replicaTracker = this.replicaTracker;
+    if (cluster != null && replicaTracker != null) {
+      cluster.unregister(replicaTracker.schemaListener);
+    }
+    childPolicy.close();
+  }
+
+  void invalidateReplicas() {
+    ReplicaTracker replicaTracker = this.replicaTracker;
+    if (replicaTracker != null) replicaTracker.invalidate();
+  }
+
+  void reset(Host host) {
+    Integer index = indexes.get(host);
+    if (index != null) scores.reset(index);
+  }
+
+  /** Returns hosts in order, except slow replicas wait for the next non-replica. */
+  static final class DeferSlowReplicas<H> extends AbstractIterator<H> {
+    final Iterator<H> plan;
+    final Set<H> replicas, slow;
+    ArrayDeque<H> deferred, ready;
+
+    DeferSlowReplicas(Iterator<H> plan, Set<H> replicas, Set<H> slow) {
+      this.plan = plan;
+      this.replicas = replicas;
+      this.slow = slow;
+    }
+
+    @Override protected H computeNext() {
+      if (ready != null && !ready.isEmpty()) return ready.poll();
+      while (plan.hasNext()) {
+        H host = plan.next();
+        if (replicas.contains(host)) {
+          if (!slow.contains(host)) return host;
+          if (deferred == null) deferred = new ArrayDeque<>(2);
+          deferred.add(host);
+        } else if (deferred == null) {
+          return host;
+        } else {
+          deferred.add(host); // after the slow replicas
+          ready = deferred;
+          deferred = null;
+          return ready.poll();
+        }
+      }
+      if (deferred != null) {
+        ready = deferred;
+        deferred = null;
+        return ready.poll();
+      }
+      return endOfData();
+    }
+  }
+
+  /** Returns {@link #UNSCORED} if the host isn't scored or its score is stale. */
+  double score(Host host, long now) {
+    Integer index = indexes.get(host);
+    if (index == null) return UNSCORED;
+    return scores.score(index, now, retryPeriodNanos);
+  }
+
+  int index(Host host) {
+    Integer index = indexes.get(host);
+    if (index != null) return index;
+    synchronized (indexes) {
+      index = indexes.get(host);
+      if (index != null) return index;
+      int result = indexes.size();
+      scores.ensureCapacity(result + 1);
+      indexes.put(host, result);
+      return result;
+    }
+  }
+
+  /**
+   * Averages in arrays indexed by the order hosts were first seen. Arrays are only replaced when a
+   * new host doesn't fit, so a racing update may be lost, which is harmless.
+   */
+  static final class Scores {
+    volatile AtomicLongArray averages = new AtomicLongArray(16); // Double bits
+    volatile AtomicLongArray timestamps = new AtomicLongArray(16); // nanoTime of the last update
+    volatile AtomicLongArray counts = new AtomicLongArray(16);
+
+    double score(int index, long now, long retryPeriodNanos) {
+      AtomicLongArray counts = this.counts, timestamps = this.timestamps;
+      if (index >= counts.length() || counts.get(index) < MIN_MEASUREMENTS) return UNSCORED;
+      if (now - timestamps.get(index) > retryPeriodNanos) return UNSCORED;
+      return Double.longBitsToDouble(averages.get(index));
+    }
+
+    void update(int index, long latencyNanos, long now, long scaleNanos) {
+      AtomicLongArray averages = this.averages;
+      long count = counts.getAndIncrement(index);
+      long previousTimestamp = timestamps.getAndSet(index, now);
+      while (true) {
+        long previousBits = averages.get(index);
+        double average;
+        if (count == 0L) {
+          average = latencyNanos;
+        } else {
+          // weigh the new measurement by how long since the previous one
+          double elapsed = Math.max(0L, now - previousTimestamp);
+          double alpha = 1.0 - Math.exp(-elapsed / scaleNanos);
+          average = (1.0 - alpha) * Double.longBitsToDouble(previousBits) + alpha * latencyNanos;
+        }
+        if (averages.compareAndSet(index, previousBits, Double.doubleToLongBits(average))) return;
+      }
+    }
+
+    void reset(int index) {
+      if (index < counts.length()) counts.set(index, 0L);
+    }
+
+    void ensureCapacity(int length) {
+      if (length <= counts.length()) return;
+      int newLength = Math.max(length, counts.length() * 2);
+      averages = copy(averages, newLength);
+      timestamps = copy(timestamps, newLength);
+      counts = copy(counts, newLength);
+    }
+
+    static AtomicLongArray copy(AtomicLongArray source, int length) {
+      AtomicLongArray result = new AtomicLongArray(length);
+      for (int i = 0; i < source.length(); i++) result.set(i, source.get(i));
+      return result;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts lightweight transactions, statements with a condition such as {@code IF NOT EXISTS}, per
+ * table, and how many of them timed out in the Paxos phase. A rising {@link
+ * #contentionRate(String) contention rate} means clients compete for the same partitions, which
+ * shows as latency cliffs long before timeouts dominate.
+ *
+ * <p>Lightweight transactions are recognized by the {@code [applied]} column of their response, or
+ * a {@link WriteTimeoutException} of {@link WriteType#CAS write type CAS}. They are counted for
+ * every statement of the traced session, sampled or not, including ones built with {@code
+ * QueryBuilder}. Tables are qualified by their keyspace when known, ex. "brave.users". Statements
+ * whose table isn't known, such as batches, aren't counted. Up to {@value #MAX_TABLES} tables are
+ * tracked.
+ *
+ * @see TracingSession#lwtContention()
+ */
+public final class LwtContentionCounter {
+  static final int MAX_TABLES = 1000;
+  static final String APPLIED = "[applied]";
+
+  final ConcurrentMap<String, TableCounts> tables = new ConcurrentHashMap<>();
+
+  LwtContentionCounter() {
+  }
+
+  /** Returns true if the response is of a lightweight transaction. */
+  static boolean isConditional(ResultSet result) {
+    return result.getColumnDefinitions().contains(APPLIED);
+  }
+
+  /** Returns true if the error is a timeout in the Paxos phase of a lightweight transaction. */
+  static boolean isCasTimeout(@Nullable Throwable error) {
+    return error instanceof WriteTimeoutException
+        && ((WriteTimeoutException) error).getWriteType() == WriteType.CAS;
+  }
+
+  void record(Statement statement, @Nullable ResultSet result, @Nullable Throwable error) {
+    boolean casTimeout = isCasTimeout(error);
+    if (!casTimeout && (result == null || !isConditional(result))) return;
+    String table = table(statement);
+    if (table == null) return;
+    TableCounts counts = tables.get(table);
+    if (counts == null) {
+      if (tables.size() >= MAX_TABLES) return;
+      TableCounts created = new TableCounts();
+      counts = tables.putIfAbsent(table, created);
+      if (counts == null) counts = created;
+    }
+    counts.count.incrementAndGet();
+    if (casTimeout) {
+      counts.casTimeouts.incrementAndGet();
+    } else if (!result.wasApplied()) { // peeks at the first row, without consuming it
+      counts.notApplied.incrementAndGet();
+    }
+  }
+
+  /** Returns the table of the statement, qualified by its keyspace when known, or null. */
+  @Nullable static String table(Statement statement) {
+    QueryMetadata metadata = BatchSummary.metadata(statement); // cached, so not parsed per request
+    if (metadata == null || metadata.table == null) return null;
+    String keyspace = metadata.keyspace != null ? metadata.keyspace : statement.getKeyspace();
+    return keyspace != null ? keyspace + "." + metadata.table : metadata.table;
+  }
+
+  /** Returns the tables that had lightweight transactions. */
+  public Set<String> tables() {
+    return Collections.unmodifiableSet(tables.keySet());
+  }
+
+  /** Returns the count of lightweight transactions on the table. */
+  public long count(String table) {
+    TableCounts counts = tables.get(table);
+    return counts != null ? counts.count.get() : 0L;
+  }
+
+  /** Returns the count of lightweight transactions on the table whose condition wasn't met. */
+  public long notApplied(String table) {
+    TableCounts counts = tables.get(table);
+    return counts != null ? counts.notApplied.get() : 0L;
+  }
+
+  /** Returns the count of lightweight transactions on the table that timed out in Paxos. */
+  public long casTimeouts(String table) {
+    TableCounts counts = tables.get(table);
+    return counts != null ? counts.casTimeouts.get() : 0L;
+  }
+
+  /** Returns the ratio of CAS timeouts to lightweight transactions, or zero if there were none. */
+  public double contentionRate(String table) {
+    TableCounts counts = tables.get(table);
+    if (counts == null) return 0.0;
+    long count = counts.count.get();
+    return count > 0 ? (double) counts.casTimeouts.get() / count : 0.0;
+  }
+
+  @Override public String toString() {
+    return "LwtContentionCounter{tables=" + tables.keySet() + "}";
+  }
+
+  static final class TableCounts {
+    final AtomicLong count = new AtomicLong(), notApplied = new AtomicLong(),
+        casTimeouts = new AtomicLong();
+  }
+}
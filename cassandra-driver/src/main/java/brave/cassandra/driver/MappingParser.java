@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.mapping.annotations.Accessor;
+import com.datastax.driver.mapping.annotations.ClusteringColumn;
+import com.datastax.driver.mapping.annotations.Column;
+import com.datastax.driver.mapping.annotations.PartitionKey;
+import com.datastax.driver.mapping.annotations.Query;
+import com.datastax.driver.mapping.annotations.Table;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names spans of statements executed by the object mapper after the entity or accessor that made
+ * them, such as "User.get" or "UserAccessor.findByEmail", as opposed to "bound-statement". Use
+ * this as the {@link CassandraClientTracing#parser() parser}, or subclass it to add more.
+ *
+ * <pre>{@code
+ * cassandraClientTracing = cassandraClientTracing.toBuilder()
+ *     .parser(MappingParser.newBuilder()
+ *         .addEntity(User.class)
+ *         .addAccessor(UserAccessor.class)
+ *         .build())
+ *     .build();
+ * }</pre>
+ *
+ * <p>Annotations are read once, when building. Names are resolved once per prepared statement and
+ * cached, so executing a statement doesn't reflect or re-parse. Statements of an entity's mapper
+ * are named after the entity and the mapper method: "get", "save" or "delete". These are matched
+ * by the shape of the query the mapper builds: the query builder's formatting, bind markers only,
+ * and conditions on exactly the entity's primary key. Statements of an accessor method are named
+ * after the accessor and the method, matched by its {@link Query}. Other statements, such as ones
+ * written by hand on an entity's table, keep their default names.
+ */
+public class MappingParser extends CassandraClientParser {
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    /** Entities, keyed by "keyspace.table", or "table" when unqualified. */
+    final Map<String, Entity> entities = new LinkedHashMap<>();
+    /** Names of accessor methods, keyed by their query. */
+    final Map<String, String> accessorMethods = new LinkedHashMap<>();
+
+    Builder() {
+    }
+
+    /** Names statements of the entity's mapper, such as "User.get". */
+    public Builder addEntity(Class<?> entityClass) {
+      if (entityClass == null) throw new NullPointerException("entityClass == null");
+      Table table = entityClass.getAnnotation(Table.class);
+      if (table == null) {
+        throw new IllegalArgumentException(entityClass.getName() + " isn't annotated @Table");
+      }
+      Set<String> primaryKey = primaryKey(entityClass);
+      if (primaryKey.isEmpty()) {
+        throw new IllegalArgumentException(entityClass.getName() + " has no @PartitionKey");
+      }
+      String name = table.caseSensitiveTable() ? table.name() : lowerCase(table.name());
+      String keyspace = table.caseSensitiveKeyspace() ? table.keyspace()
+          : lowerCase(table.keyspace());
+      entities.put(keyspace.isEmpty() ? name : keyspace + "." + name,
+          new Entity(entityClass.getSimpleName(), primaryKey));
+      return this;
+    }
+
+    /** Names statements of the accessor's methods, such as "UserAccessor.findByEmail". */
+    public Builder addAccessor(Class<?> accessorClass) {
+      if (accessorClass == null) throw new NullPointerException("accessorClass == null");
+      if (accessorClass.getAnnotation(Accessor.class) == null) {
+        throw new IllegalArgumentException(accessorClass.getName() + " isn't annotated @Accessor");
+      }
+      for (Method method : accessorClass.getMethods()) {
+        Query query = method.getAnnotation(Query.class);
+        if (query == null) continue;
+        accessorMethods.put(query.value().trim(),
+            accessorClass.getSimpleName() + "." + method.getName());
+      }
+      return this;
+    }
+
+    public MappingParser build() {
+      return new MappingParser(this);
+    }
+  }
+
+  /** Cached for statements that aren't mapped, as the cache doesn't allow null values. */
+  static final String UNMAPPED = "";
+
+  // The queries the mapper builds. Options add clauses, such as "USING TTL ?" or "IF NOT EXISTS".
+  static final Pattern MAPPER_GET = Pattern.compile("SELECT .+ FROM [^ ]+ WHERE (.+);");
+  static final Pattern MAPPER_SAVE = Pattern.compile("INSERT INTO [^ ]+ \\(([^)]+)\\) "
+      + "VALUES \\(\\?(?:,\\?)*\\)(?: IF NOT EXISTS)?(?: USING [^;]+)?;");
+  static final Pattern MAPPER_DELETE =
+      Pattern.compile("DELETE FROM [^ ]+(?: USING [^;]+?)? WHERE (.+?)(?: IF EXISTS)?;");
+
+  final Map<String, Entity> entities;
+  final Map<String, String> accessorMethods;
+
+  // Like QueryMetadata.CACHE, weak keys compare by identity and allow collection.
+  final Cache<PreparedStatement, String> names = CacheBuilder.newBuilder()
+      .maximumSize(QueryMetadata.MAX_CACHED_STATEMENTS).weakKeys().build();
+
+  protected MappingParser(Builder builder) {
+    this.entities = new LinkedHashMap<>(builder.entities);
+    this.accessorMethods = new LinkedHashMap<>(builder.accessorMethods);
+  }
+
+  /**
+   * Returns the entity or accessor method name of a bound statement made by the mapper, or
+   * otherwise the default span name.
+   */
+  @Override protected String spanName(Statement statement, String query) {
+    if (statement instanceof BoundStatement) {
+      BoundStatement bound = (BoundStatement) statement;
+      PreparedStatement prepared = bound.preparedStatement();
+      String name = names.getIfPresent(prepared);
+      if (name == null) {
+        QueryMetadata metadata = QueryMetadata.of(bound);
+        name = mappedName(prepared.getQueryString(), metadata.keyspace, metadata.table,
+            metadata.operation);
+        if (name == null) name = UNMAPPED;
+        names.put(prepared, name); // racing threads compute the same value
+      }
+      if (!UNMAPPED.equals(name)) return name;
+    }
+    return super.spanName(statement, query);
+  }
+
+  @Nullable String mappedName(String query, @Nullable String keyspace, @Nullable String table,
+      @Nullable String operation) {
+    String accessorMethod = accessorMethods.get(query.trim());
+    if (accessorMethod != null) return accessorMethod;
+    if (table == null || operation == null) return null;
+    Entity entity = keyspace != null ? entities.get(keyspace + "." + table) : null;
+    if (entity == null) entity = entities.get(table);
+    if (entity == null) return null;
+    String method = entity.mapperMethod(query, operation);
+    return method != null ? entity.name + "." + method : null;
+  }
+
+  /** The simple name of an entity, and the columns of its primary key. */
+  static final class Entity {
+    final String name;
+    final Set<String> primaryKey;
+
+    Entity(String name, Set<String> primaryKey) {
+      this.name = name;
+      this.primaryKey = primaryKey;
+    }
+
+    /**
+     * Returns the name of the {@code Mapper} method that built the query, or null if it wasn't
+     * built by the mapper. The mapper doesn't build updates.
+     */
+    @Nullable String mapperMethod(String query, String operation) {
+      Matcher matcher;
+      switch (operation) {
+        case "SELECT":
+          matcher = MAPPER_GET.matcher(query);
+          return matcher.matches() && isPrimaryKey(matcher.group(1)) ? "get" : null;
+        case "INSERT":
+          matcher = MAPPER_SAVE.matcher(query);
+          return matcher.matches() && columns(matcher.group(1)).containsAll(primaryKey)
+              ? "save" : null;
+        case "DELETE":
+          matcher = MAPPER_DELETE.matcher(query);
+          return matcher.matches() && isPrimaryKey(matcher.group(1)) ? "delete" : null;
+        default:
+          return null;
+      }
+    }
+
+    /** Returns true if the conditions are a bind marker for each column of the primary key. */
+    boolean isPrimaryKey(String where) {
+      Set<String> columns = new LinkedHashSet<>();
+      for (String condition : where.split(" AND ")) {
+        if (!condition.endsWith("=?")) return false;
+        columns.add(column(condition.substring(0, condition.length() - 2)));
+      }
+      return columns.equals(primaryKey);
+    }
+  }
+
+  static Set<String> columns(String list) {
+    Set<String> result = new LinkedHashSet<>();
+    for (String column : list.split(",")) result.add(column(column));
+    return result;
+  }
+
+  /** Returns a quoted identifier as is, or others in lower case, as Cassandra does. */
+  static String column(String identifier) {
+    if (identifier.length() > 1 && identifier.startsWith("\"") && identifier.endsWith("\"")) {
+      return identifier.substring(1, identifier.length() - 1);
+    }
+    return lowerCase(identifier);
+  }
+
+  /** Returns the columns of the partition key and clustering columns of the entity. */
+  static Set<String> primaryKey(Class<?> entityClass) {
+    Set<String> result = new LinkedHashSet<>();
+    for (Class<?> type = entityClass; type != null && type != Object.class;
+        type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) addIfKey(result, field, field.getName());
+      for (Method method : type.getDeclaredMethods()) {
+        String property = propertyName(method.getName());
+        if (property != null) addIfKey(result, method, property);
+      }
+    }
+    return result;
+  }
+
+  static void addIfKey(Set<String> result, AnnotatedElement element, String property) {
+    if (element.getAnnotation(PartitionKey.class) == null
+        && element.getAnnotation(ClusteringColumn.class) == null) {
+      return;
+    }
+    Column column = element.getAnnotation(Column.class);
+    String name = column != null && !column.name().isEmpty() ? column.name() : property;
+    result.add(column != null && column.caseSensitive() ? name : lowerCase(name));
+  }
+
+  /** Returns the property of a getter or setter, or null if the method is neither. */
+  @Nullable static String propertyName(String methodName) {
+    int prefix = methodName.startsWith("get") || methodName.startsWith("set") ? 3
+        : methodName.startsWith("is") ? 2 : 0;
+    if (prefix == 0 || methodName.length() == prefix) return null;
+    return Character.toLowerCase(methodName.charAt(prefix)) + methodName.substring(prefix + 1);
+  }
+
+  static String lowerCase(String value) {
+    return value.toLowerCase(Locale.ROOT);
+  }
+}
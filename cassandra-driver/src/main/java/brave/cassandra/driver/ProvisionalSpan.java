@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContextOrSamplingFlags;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static brave.Span.Kind.CLIENT;
+
+/**
+ * Times a statement the head sampler skipped, and reports it as a new trace when it is slower than
+ * its threshold or fails. Nothing is recorded until then, so fast statements only cost this object,
+ * which is returned to a {@link Pool} once the future completes.
+ */
+final class ProvisionalSpan implements Runnable {
+  final Pool pool;
+  TracingSession session;
+  Statement statement;
+  ResultSetFuture future;
+  long thresholdNanos, startNanos;
+
+  ProvisionalSpan(Pool pool) {
+    this.pool = pool;
+  }
+
+  static void addTo(ResultSetFuture future, Statement statement, long thresholdNanos,
+      long startNanos, TracingSession session) {
+    ProvisionalSpan provisional = session.provisionalSpans.acquire();
+    provisional.session = session;
+    provisional.statement = statement;
+    provisional.future = future;
+    provisional.thresholdNanos = thresholdNanos;
+    provisional.startNanos = startNanos;
+    future.addListener(provisional, MoreExecutors.directExecutor());
+  }
+
+  @Override public void run() {
+    long durationNanos = System.nanoTime() - startNanos;
+    ResultSet result = null;
+    Throwable error = null;
+    try {
+      result = Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    } catch (RuntimeException | Error e) { // includes CancellationException
+      error = e;
+    }
+    try {
+      if (error != null || durationNanos > thresholdNanos) {
+        report(session, statement, startNanos, durationNanos, result, error);
+      }
+    } finally {
+      session = null;
+      statement = null;
+      future = null;
+      pool.release(this);
+    }
+  }
+
+  /** Reports a span which began {@code durationNanos} before now. */
+  static void report(TracingSession session, Statement statement, long startNanos,
+      long durationNanos, ResultSet result, Throwable error) {
+    // The trace context propagated was unsampled, so this must start a new trace. Clear any current
+    // context, such as the caller's unsampled one, or the span would join it and not be sampled.
+    Span span;
+    try (Scope scope = session.currentTraceContext.maybeScope(null)) {
+      span = session.tracer.nextSpan(TraceContextOrSamplingFlags.SAMPLED);
+    }
+    session.parser.request(statement, span.kind(CLIENT));
+    long finishMicros = session.tracing.clock(span.context()).currentTimeMicroseconds();
+    span.start(finishMicros - durationNanos / 1000L);
+    if (error != null) {
+      span.error(error);
+    } else {
+      TracingCallback.parseResponse(result, span, session);
+    }
+    span.finish(finishMicros);
+  }
+
+  /**
+   * A lock-free pool of a fixed number of instances. When contended or empty, this allocates, and
+   * when full, released instances are left to the garbage collector.
+   *
+   * <p>Instances are acquired on caller threads and released on I/O threads, so slots are chosen
+   * by a shared cursor, not by thread. Releases fill slots forward from the cursor, and acquires
+   * probe backwards from it, taking the most recently released instances first.
+   */
+  static final class Pool {
+    /** Slots probed before giving up, so contention costs at most this many reads. */
+    static final int PROBES = 4;
+
+    final AtomicReferenceArray<ProvisionalSpan> slots;
+    final AtomicInteger cursor = new AtomicInteger();
+    final int mask;
+
+    /** @param size a power of two */
+    Pool(int size) {
+      slots = new AtomicReferenceArray<>(size);
+      mask = size - 1;
+    }
+
+    ProvisionalSpan acquire() {
+      int start = cursor.get() - 1;
+      for (int i = 0; i < PROBES; i++) {
+        int index = (start - i) & mask; // masking handles a negative or overflowed cursor
+        ProvisionalSpan result = slots.get(index);
+        if (result != null && slots.compareAndSet(index, result, null)) return result;
+      }
+      return new ProvisionalSpan(this);
+    }
+
+    void release(ProvisionalSpan provisional) {
+      for (int i = 0; i < PROBES; i++) {
+        int index = cursor.getAndIncrement() & mask;
+        if (slots.get(index) == null && slots.compareAndSet(index, null, provisional)) return;
+      }
+    }
+  }
+}
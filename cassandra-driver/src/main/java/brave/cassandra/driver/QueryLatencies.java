@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Statement;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the latency of every request, sampled or not, into fixed-size histograms keyed by query
+ * shape, keyspace and the host queried. This gives exact percentiles per statement, where traces
+ * only give examples.
+ *
+ * <p>Ex. Here's how to scrape the 99.9th percentile of each query once a minute
+ *
+ * <pre>{@code
+ * QueryLatencies latencies = QueryLatencies.create();
+ * cassandraClientTracing = cassandraClientTracing.toBuilder().queryLatencies(latencies).build();
+ *
+ * // once a minute
+ * for (QueryLatencies.Snapshot snapshot : latencies.snapshotAndReset()) {
+ *   report(snapshot.query(), snapshot.host(), snapshot.valueAtPercentile(99.9, MILLISECONDS));
+ * }
+ * }</pre>
+ *
+ * <p>The query shape is the same as {@link CassandraClientSampler#rateLimitedPerQuery(int)}: the
+ * CQL of a prepared statement, the fingerprint of a simple statement, or the statement type
+ * otherwise. Each histogram uses about 7KiB. Once the configured maximum count of histograms
+ * exists, new keys are recorded into a shared overflow histogram, whose query, keyspace and host
+ * are null, without retaining the keys.
+ *
+ * @see CassandraClientTracing#queryLatencies()
+ */
+public final class QueryLatencies {
+  /** Returns an instance which keeps up to 1000 histograms. */
+  public static QueryLatencies create() {
+    return create(1000);
+  }
+
+  /** Returns an instance which keeps up to {@code maxHistograms}, plus one for overflow. */
+  public static QueryLatencies create(int maxHistograms) {
+    if (maxHistograms < 0) throw new IllegalArgumentException("maxHistograms < 0");
+    return new QueryLatencies(maxHistograms);
+  }
+
+  /** Used in place of null keys, which {@link ConcurrentHashMap} doesn't allow. */
+  static final Object NONE = new Object();
+
+  final int maxHistograms;
+  final AtomicInteger histogramCount = new AtomicInteger();
+  // Nested maps are looked up without allocating a composite key per request.
+  // query shape -> keyspace -> host -> histogram
+  final ConcurrentMap<Object, ConcurrentMap<Object, ConcurrentMap<Object, LatencyHistogram>>>
+      histograms = new ConcurrentHashMap<>();
+  final LatencyHistogram overflow = new LatencyHistogram();
+
+  QueryLatencies(int maxHistograms) {
+    this.maxHistograms = maxHistograms;
+  }
+
+  void record(Statement statement, @Nullable Host host, long durationNanos) {
+    histogram(QueryRateLimitingSampler.key(statement), statement.getKeyspace(), host)
+        .recordNanos(durationNanos);
+  }
+
+  LatencyHistogram histogram(Object query, @Nullable String keyspace, @Nullable Host host) {
+    Object keyspaceKey = keyspace != null ? keyspace : NONE, hostKey = host != null ? host : NONE;
+    ConcurrentMap<Object, ConcurrentMap<Object, LatencyHistogram>> byKeyspace =
+        histograms.get(query);
+    ConcurrentMap<Object, LatencyHistogram> byHost =
+        byKeyspace != null ? byKeyspace.get(keyspaceKey) : null;
+    LatencyHistogram result = byHost != null ? byHost.get(hostKey) : null;
+    if (result != null) return result;
+    // checked before adding maps, so keys past the maximum aren't retained
+    if (histogramCount.get() >= maxHistograms) return overflow;
+    if (byHost == null) byHost = child(child(histograms, query), keyspaceKey);
+    LatencyHistogram created = new LatencyHistogram();
+    result = byHost.putIfAbsent(hostKey, created);
+    if (result != null) return result;
+    histogramCount.incrementAndGet(); // racing threads may exceed the maximum by a few
+    return created;
+  }
+
+  static <V> ConcurrentMap<Object, V> child(ConcurrentMap<Object, ConcurrentMap<Object, V>> parent,
+      Object key) {
+    ConcurrentMap<Object, V> result = parent.get(key);
+    if (result != null) return result;
+    ConcurrentMap<Object, V> created = new ConcurrentHashMap<>();
+    result = parent.putIfAbsent(key, created);
+    return result != null ? result : created;
+  }
+
+  /** Returns the latencies recorded so far, skipping histograms with nothing recorded. */
+  public List<Snapshot> snapshot() {
+    return snapshot(false);
+  }
+
+  /**
+   * Returns the latencies recorded since the last reset and zeroes them, skipping histograms with
+   * nothing recorded. Use this when scraping on an interval. Histograms aren't removed, so a
+   * reset doesn't allocate new ones.
+   */
+  public List<Snapshot> snapshotAndReset() {
+    return snapshot(true);
+  }
+
+  List<Snapshot> snapshot(boolean reset) {
+    List<Snapshot> result = new ArrayList<>();
+    for (Map.Entry<Object, ConcurrentMap<Object, ConcurrentMap<Object, LatencyHistogram>>> q
+        : histograms.entrySet()) {
+      String query = q.getKey() instanceof Class
+          ? ((Class<?>) q.getKey()).getSimpleName() : (String) q.getKey();
+      for (Map.Entry<Object, ConcurrentMap<Object, LatencyHistogram>> k
+          : q.getValue().entrySet()) {
+        String keyspace = k.getKey() != NONE ? (String) k.getKey() : null;
+        for (Map.Entry<Object, LatencyHistogram> h : k.getValue().entrySet()) {
+          InetSocketAddress host =
+              h.getKey() != NONE ? ((Host) h.getKey()).getSocketAddress() : null;
+          addIfNotEmpty(result, query, keyspace, host, h.getValue().copy(reset));
+        }
+      }
+    }
+    addIfNotEmpty(result, null, null, null, overflow.copy(reset));
+    return result;
+  }
+
+  static void addIfNotEmpty(List<Snapshot> result, @Nullable String query,
+      @Nullable String keyspace, @Nullable InetSocketAddress host, long[] counts) {
+    long count = 0L;
+    for (long c : counts) count += c;
+    if (count > 0L) result.add(new Snapshot(query, keyspace, host, counts, count));
+  }
+
+  @Override public String toString() {
+    return "QueryLatencies{maxHistograms=" + maxHistograms + "}";
+  }
+
+  /** The latencies recorded for one query shape, keyspace and host. */
+  public static final class Snapshot {
+    @Nullable final String query, keyspace;
+    @Nullable final InetSocketAddress host;
+    final long[] counts;
+    final long count;
+
+    Snapshot(@Nullable String query, @Nullable String keyspace, @Nullable InetSocketAddress host,
+        long[] counts, long count) {
+      this.query = query;
+      this.keyspace = keyspace;
+      this.host = host;
+      this.counts = counts;
+      this.count = count;
+    }
+
+    /**
+     * The CQL or its fingerprint, or the statement type when the CQL isn't read. Null for the
+     * overflow histogram.
+     */
+    @Nullable public String query() {
+      return query;
+    }
+
+    /** The keyspace of the statement, if known. */
+    @Nullable public String keyspace() {
+      return keyspace;
+    }
+
+    /** The host that answered, or null when the request failed without one. */
+    @Nullable public InetSocketAddress host() {
+      return host;
+    }
+
+    /** The count of requests recorded. */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * Returns the latency at or below which the given percentage of requests completed, rounded up
+     * to the precision of the histogram. Ex. {@code valueAtPercentile(99.9, MILLISECONDS)}.
+     */
+    public long valueAtPercentile(double percentile, TimeUnit unit) {
+      if (percentile < 0.0 || percentile > 100.0) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100");
+      }
+      if (unit == null) throw new NullPointerException("unit == null");
+      long target = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0L;
+      int index = 0;
+      for (; index < counts.length - 1; index++) {
+        seen += counts[index];
+        if (seen >= target) break;
+      }
+      return unit.convert(LatencyHistogram.highestValue(index), TimeUnit.MICROSECONDS);
+    }
+
+    /** Returns the highest latency recorded, rounded up to the precision of the histogram. */
+    public long max(TimeUnit unit) {
+      return valueAtPercentile(100.0, unit);
+    }
+
+    @Override public String toString() {
+      return "Snapshot{query=" + query + ", keyspace=" + keyspace + ", host=" + host
+          + ", count=" + count + "}";
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Data about a query which doesn't change between executions. This is cached per prepared
+ * statement, so parsing a bound statement is a lookup.
+ */
+final class QueryMetadata {
+  /** Bounds memory when applications prepare statements dynamically. */
+  static final int MAX_CACHED_STATEMENTS = 1000;
+
+  // Weak keys compare by identity and allow unreferenced prepared statements to be collected.
+  static final Cache<PreparedStatement, QueryMetadata> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_STATEMENTS).weakKeys().build();
+
+  /** Bounds memory when applications inline literals into many distinct queries. */
+  static final int MAX_CACHED_QUERIES = 1000;
+
+  // Keyed on the raw query, so fingerprinting it is a lookup until it is evicted.
+  static final Cache<String, QueryMetadata> QUERY_CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_QUERIES).build();
+
+  /**
+   * Returns metadata about a simple or built statement, whose query is the {@link
+   * #fingerprint(String) fingerprint} of its CQL. Both are cached by query string, as built
+   * statements are usually created per request. Reading the query string of a built statement
+   * builds it, but it is only parsed once.
+   */
+  static QueryMetadata of(RegularStatement statement) {
+    return of(statement.getQueryString());
+  }
+
+  static QueryMetadata of(String query) {
+    QueryMetadata result = QUERY_CACHE.getIfPresent(query);
+    if (result != null) return result;
+    result = parse(fingerprint(query));
+    QUERY_CACHE.put(query, result); // racing threads compute the same value
+    return result;
+  }
+
+  static QueryMetadata of(BoundStatement bound) {
+    PreparedStatement prepared = bound.preparedStatement();
+    QueryMetadata result = CACHE.getIfPresent(prepared);
+    if (result != null) return result;
+    result = parse(prepared);
+    CACHE.put(prepared, result); // racing threads compute the same value
+    return result;
+  }
+
+  static QueryMetadata parse(PreparedStatement prepared) {
+    QueryMetadata parsed = parse(prepared.getQueryString());
+    ColumnDefinitions variables = prepared.getVariables();
+    // bind variables have authoritative metadata, when present
+    String keyspace = variables.size() > 0 ? variables.getKeyspace(0) : null;
+    String table = variables.size() > 0 ? variables.getTable(0) : null;
+    if (keyspace == null) keyspace = parsed.keyspace;
+    if (keyspace == null) keyspace = prepared.getQueryKeyspace();
+    if (table == null) table = parsed.table;
+    return new QueryMetadata(parsed.query, keyspace, table, parsed.operation);
+  }
+
+  /**
+   * Reads the operation and table from a CQL query string. This isn't a full CQL parser: it only
+   * looks as far as the table name, and leaves fields null when the query isn't understood.
+   */
+  static QueryMetadata parse(String query) {
+    Tokenizer tokens = new Tokenizer(query);
+    String operation = operation(tokens.next());
+    if (operation == null || "BATCH".equals(operation)) {
+      return new QueryMetadata(query, null, null, operation);
+    }
+
+    // advance to the token before the table name
+    if (!"UPDATE".equals(operation)) {
+      String keyword = "INSERT".equals(operation) ? "into" : "from";
+      String token;
+      while ((token = tokens.next()) != null) {
+        if (!tokens.quoted && keyword.equalsIgnoreCase(token)) break;
+      }
+    }
+
+    String keyspace = null, table = tokens.nextIdentifier();
+    if (table != null && ".".equals(tokens.next())) {
+      keyspace = table;
+      table = tokens.nextIdentifier();
+    }
+    return new QueryMetadata(query, table != null ? keyspace : null, table, operation);
+  }
+
+  /** Matches a list of placeholders, such as in an IN clause, so that its length doesn't matter. */
+  static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+  /**
+   * Returns the query with literals replaced by {@code ?}, so that queries which only differ by
+   * their values have the same, low cardinality fingerprint. Comments are removed, whitespace is
+   * collapsed and lists of placeholders become one. Identifiers and keywords are left as is.
+   *
+   * <p>Ex. {@code SELECT * FROM users WHERE id IN (1, 2, 3) AND name = 'bob'} becomes {@code
+   * SELECT * FROM users WHERE id IN (?) AND name = ?}
+   */
+  static String fingerprint(String cql) {
+    StringBuilder result = new StringBuilder(cql.length());
+    int pos = 0, length = cql.length();
+    while (pos < length) {
+      char c = cql.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        while (pos < length && Character.isWhitespace(cql.charAt(pos))) pos++;
+        int last = result.length() - 1;
+        if (last >= 0 && result.charAt(last) != ' ') result.append(' ');
+      } else if (cql.startsWith("--", pos) || cql.startsWith("//", pos)) {
+        int eol = cql.indexOf('\n', pos);
+        pos = eol == -1 ? length : eol;
+      } else if (cql.startsWith("/*", pos)) {
+        int end = cql.indexOf("*/", pos + 2);
+        pos = end == -1 ? length : end + 2;
+      } else if (c == '\'' || c == '"') {
+        int end = Tokenizer.skipQuoted(cql, c, pos);
+        if (c == '"') {
+          result.append(cql, pos, end); // quoted identifier
+        } else {
+          result.append('?');
+        }
+        pos = end;
+      } else if (cql.startsWith("$$", pos)) {
+        int end = cql.indexOf("$$", pos + 2);
+        pos = end == -1 ? length : end + 2;
+        result.append('?');
+      } else if (Tokenizer.isIdentifierPart(c)) {
+        int end = pos;
+        while (end < length && isLiteralPart(cql.charAt(end))) end++;
+        if (isUuid(cql, pos, end) || Character.isDigit(c)) { // number, blob or uuid
+          result.append('?');
+          pos = end;
+        } else {
+          end = pos;
+          while (end < length && Tokenizer.isIdentifierPart(cql.charAt(end))) end++;
+          result.append(cql, pos, end);
+          pos = end;
+        }
+      } else if (c == '-' && pos + 1 < length && Character.isDigit(cql.charAt(pos + 1))
+          && !endsWithOperand(result)) { // negative number, as opposed to subtraction
+        pos++;
+      } else {
+        result.append(c);
+        pos++;
+      }
+    }
+    int end = result.length();
+    if (end > 0 && result.charAt(end - 1) == ' ') result.setLength(end - 1);
+    return PLACEHOLDER_LIST.matcher(result).replaceAll("?");
+  }
+
+  /** Characters in numbers, such as 1.5e-3, blobs, such as 0xcafe, and uuids. */
+  static boolean isLiteralPart(char c) {
+    return Tokenizer.isIdentifierPart(c) || c == '.' || c == '-';
+  }
+
+  static boolean isUuid(String cql, int start, int end) {
+    if (end - start != 36) return false;
+    for (int i = start; i < end; i++) {
+      int offset = i - start;
+      char c = cql.charAt(i);
+      boolean dash = offset == 8 || offset == 13 || offset == 18 || offset == 23;
+      if (dash ? c != '-' : Character.digit(c, 16) == -1) return false;
+    }
+    return true;
+  }
+
+  /** True when the last character written ends a value, such as a column name or placeholder. */
+  static boolean endsWithOperand(StringBuilder result) {
+    if (result.length() == 0) return false;
+    char last = result.charAt(result.length() - 1);
+    return last == '?' || last == ')' || last == '"' || Tokenizer.isIdentifierPart(last);
+  }
+
+  @Nullable static String operation(@Nullable String firstToken) {
+    if (firstToken == null) return null;
+    switch (firstToken.toUpperCase(Locale.ROOT)) {
+      case "SELECT":
+        return "SELECT";
+      case "INSERT":
+        return "INSERT";
+      case "UPDATE":
+        return "UPDATE";
+      case "DELETE":
+        return "DELETE";
+      case "BEGIN":
+        return "BATCH";
+      default:
+        return null;
+    }
+  }
+
+  final String query;
+  @Nullable final String keyspace, table, operation;
+
+  QueryMetadata(String query, @Nullable String keyspace, @Nullable String table,
+      @Nullable String operation) {
+    this.query = query;
+    this.keyspace = keyspace;
+    this.table = table;
+    this.operation = operation;
+  }
+
+  /** Splits CQL into words and punctuation, skipping comments and string literals. */
+  static final class Tokenizer {
+    final String cql;
+    int pos;
+    /** True when the last token was a double-quoted identifier. */
+    boolean quoted;
+
+    Tokenizer(String cql) {
+      this.cql = cql;
+    }
+
+    /** Returns the next identifier, lower-cased unless quoted, or null if the next isn't one. */
+    @Nullable String nextIdentifier() {
+      String token = next();
+      if (token == null) return null;
+      if (quoted) return token;
+      if (!isIdentifierPart(token.charAt(0))) return null;
+      return token.toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable String next() {
+      quoted = false;
+      int length = cql.length();
+      while (pos < length) {
+        char c = cql.charAt(pos);
+        if (Character.isWhitespace(c)) {
+          pos++;
+        } else if (cql.startsWith("--", pos) || cql.startsWith("//", pos)) {
+          int eol = cql.indexOf('\n', pos);
+          pos = eol == -1 ? length : eol + 1;
+        } else if (cql.startsWith("/*", pos)) {
+          int end = cql.indexOf("*/", pos + 2);
+          pos = end == -1 ? length : end + 2;
+        } else if (c == '\'') {
+          pos = skipQuoted('\'');
+          return "'";
+        } else if (cql.startsWith("$$", pos)) {
+          int end = cql.indexOf("$$", pos + 2);
+          pos = end == -1 ? length : end + 2;
+          return "$$";
+        } else if (c == '"') {
+          int start = pos + 1;
+          pos = skipQuoted('"');
+          quoted = true;
+          return cql.substring(start, Math.max(start, pos - 1)).replace("\"\"", "\"");
+        } else if (isIdentifierPart(c)) {
+          int start = pos;
+          while (pos < length && isIdentifierPart(cql.charAt(pos))) pos++;
+          return cql.substring(start, pos);
+        } else {
+          pos++;
+          return String.valueOf(c);
+        }
+      }
+      return null;
+    }
+
+    /** Returns the position after the closing quote, where a doubled quote is an escape. */
+    int skipQuoted(char quote) {
+      return skipQuoted(cql, quote, pos);
+    }
+
+    static int skipQuoted(String cql, char quote, int start) {
+      int i = start + 1, length = cql.length();
+      while (i < length) {
+        if (cql.charAt(i) == quote) {
+          if (i + 1 < length && cql.charAt(i + 1) == quote) {
+            i += 2;
+            continue;
+          }
+          return i + 1;
+        }
+        i++;
+      }
+      return length;
+    }
+
+    static boolean isIdentifierPart(char c) {
+      return c == '_' || Character.isLetterOrDigit(c);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.sampler.RateLimitingSampler;
+import brave.sampler.Sampler;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Starts at most a configured count of traces per second for each query shape, so that a few hot
+ * queries can't use the whole tracing budget.
+ *
+ * <p>Each shape has its own {@link RateLimitingSampler}, which is lock-free. Shapes are kept up to
+ * the configured maximum, evicting the least recently used, so ad-hoc queries can't exhaust
+ * memory. With a maximum of zero, all shapes share one limiter.
+ */
+final class QueryRateLimitingSampler extends CassandraClientSampler {
+  final int tracesPerSecond, maxQueries;
+  final Cache<Object, Sampler> samplers;
+  final Sampler overflow;
+
+  QueryRateLimitingSampler(int tracesPerSecond, int maxQueries) {
+    this.tracesPerSecond = tracesPerSecond;
+    this.maxQueries = maxQueries;
+    this.samplers = CacheBuilder.newBuilder().maximumSize(maxQueries).build();
+    this.overflow = RateLimitingSampler.create(tracesPerSecond);
+  }
+
+  @Override public Boolean trySample(Statement statement) {
+    return samplerFor(key(statement)).isSampled(0L); // trace ID isn't used by a rate limiter
+  }
+
+  Sampler samplerFor(Object key) {
+    if (maxQueries == 0) return overflow;
+    Sampler result = samplers.getIfPresent(key);
+    if (result != null) return result;
+    Sampler created = RateLimitingSampler.create(tracesPerSecond);
+    result = samplers.asMap().putIfAbsent(key, created);
+    return result != null ? result : created;
+  }
+
+  /**
+   * Returns the CQL of bound statements, or the {@link QueryMetadata#fingerprint(String)
+   * fingerprint} of simple statements, so that literal values don't make new shapes. Both are
+   * cached. Other statements, such as built statements, are keyed by type as reading their query
+   * string would rebuild it.
+   */
+  static Object key(Statement statement) {
+    if (statement instanceof BoundStatement) {
+      return QueryMetadata.of((BoundStatement) statement).query;
+    } else if (statement instanceof SimpleStatement) {
+      return QueryMetadata.of((SimpleStatement) statement).query;
+    }
+    return statement.getClass();
+  }
+
+  @Override public String toString() {
+    return "QueryRateLimitingSampler{tracesPerSecond=" + tracesPerSecond
+        + ", maxQueries=" + maxQueries + "}";
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.Tracer;
+import brave.propagation.TraceContext;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.QueryTrace;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_TRACE_COORDINATOR;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_TRACE_SESSION_ID;
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Imports Cassandra's own query traces, from {@code system_traces}, as "query-trace" child spans of
+ * sampled client spans. Each server event is an annotation, such as "Parsing SELECT..." or
+ * "Read 1 live rows". This is made for {@link
+ * CassandraClientTracing.Builder#queryTraceImporter(QueryTraceImporter)}, when servers can't join
+ * the trace via propagation, such as protocol versions before V4.
+ *
+ * <p>Only statements that are both sampled and {@linkplain
+ * com.datastax.driver.core.Statement#enableTracing() traced} are imported. Completing a request
+ * only enqueues its trace ID. Cassandra writes traces asynchronously, so a single daemon thread
+ * reads them after a delay, with one query of sessions for up to {@value #MAX_BATCH} traces, and
+ * one query of events per trace, as a trace's events can fill a page. Traces not yet complete are
+ * retried a few times. To protect {@code system_traces}, at most {@code
+ * maxPending} traces are waiting or being read at a time, and any more are dropped. Separately, at
+ * most {@value #MAX_QUERIES} queries are in flight: due traces beyond that wait for a later read.
+ *
+ * <pre>{@code
+ * queryTraceImporter = QueryTraceImporter.create();
+ * cassandraClientTracing = cassandraClientTracing.toBuilder()
+ *     .queryTraceImporter(queryTraceImporter)
+ *     .build();
+ *
+ * // on shutdown, before closing the session
+ * queryTraceImporter.close();
+ * }</pre>
+ */
+public final class QueryTraceImporter implements Closeable {
+  /** Trace IDs read per query, which keeps the IN clause small. */
+  static final int MAX_BATCH = 100;
+  /** Reads of a trace before it is dropped, when the coordinator hasn't finished writing it. */
+  static final int MAX_TRIES = 5;
+  /** Queries of {@code system_traces} in flight at a time, across sessions. */
+  static final int MAX_QUERIES = 16;
+  /** Events read per trace. Further pages aren't fetched, to not block the importer thread. */
+  static final int MAX_EVENTS = 5000;
+  /** The offset, in 100ns intervals, of the time UUID epoch (1582-10-15) from the unix epoch. */
+  static final long UUID_EPOCH_OFFSET = 0x01b21dd213814000L;
+
+  /** Imports traces two seconds after their requests complete, up to 1000 at a time. */
+  public static QueryTraceImporter create() {
+    return create(2, TimeUnit.SECONDS, 1000);
+  }
+
+  /**
+   * @param delay how long to wait after a request completes before reading its trace
+   * @param maxPending the maximum count of traces waiting or being read. Any more are dropped.
+   */
+  public static QueryTraceImporter create(long delay, TimeUnit unit, int maxPending) {
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (delay <= 0) throw new IllegalArgumentException("delay <= 0");
+    if (maxPending <= 0) throw new IllegalArgumentException("maxPending <= 0");
+    QueryTraceImporter result = new QueryTraceImporter(unit.toNanos(delay), maxPending);
+    result.executor.scheduleWithFixedDelay(
+        result::importDue, result.delayNanos, result.delayNanos, TimeUnit.NANOSECONDS);
+    return result;
+  }
+
+  final long delayNanos;
+  final int maxPending;
+  final Queue<PendingTrace> queue = new ConcurrentLinkedQueue<>();
+  final AtomicInteger pending = new AtomicInteger();
+  final AtomicLong dropped = new AtomicLong();
+  final Semaphore queries = new Semaphore(MAX_QUERIES);
+  final ScheduledThreadPoolExecutor executor;
+  volatile boolean closed;
+
+  QueryTraceImporter(long delayNanos, int maxPending) {
+    this.delayNanos = delayNanos;
+    this.maxPending = maxPending;
+    executor = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "QueryTraceImporter");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /** Returns the count of traces waiting or being read. */
+  public int pending() {
+    return pending.get();
+  }
+
+  /**
+   * Returns the count of traces not imported, because too many were pending, reading them failed,
+   * or the coordinator didn't finish writing them in time.
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /** Enqueues the trace of a sampled request, if it was traced. */
+  void maybeImport(ResultSet result, Span span, TracingSession session) {
+    ExecutionInfo info = result.getExecutionInfo();
+    QueryTrace trace = info != null ? info.getQueryTrace() : null;
+    if (trace == null) return; // the statement wasn't traced
+    offer(new PendingTrace(session.delegate, session.tracer, span.context(), trace.getTraceId()));
+  }
+
+  boolean offer(PendingTrace trace) {
+    if (closed || pending.incrementAndGet() > maxPending) {
+      pending.decrementAndGet();
+      dropped.incrementAndGet();
+      return false;
+    }
+    trace.dueNanos = System.nanoTime() + delayNanos;
+    queue.offer(trace);
+    return true;
+  }
+
+  /**
+   * Reads traces that are due, in batches per session, as long as queries are available. Each
+   * trace needs a query of its events, and each batch one of sessions. This runs on the importer
+   * thread.
+   */
+  void importDue() {
+    Map<Session, List<PendingTrace>> due = new LinkedHashMap<>();
+    long now = System.nanoTime();
+    PendingTrace next;
+    // traces are enqueued with the same delay, so they become due in order
+    while ((next = queue.peek()) != null && next.dueNanos - now <= 0L) {
+      List<PendingTrace> traces = due.get(next.session);
+      int needed = traces == null || traces.size() % MAX_BATCH == 0 ? 2 : 1;
+      if (!queries.tryAcquire(needed)) break; // released as queries complete
+      queue.poll();
+      due.computeIfAbsent(next.session, s -> new ArrayList<>()).add(next);
+    }
+    for (Map.Entry<Session, List<PendingTrace>> entry : due.entrySet()) {
+      List<PendingTrace> traces = entry.getValue();
+      for (int i = 0; i < traces.size(); i += MAX_BATCH) {
+        read(entry.getKey(), traces.subList(i, Math.min(i + MAX_BATCH, traces.size())));
+      }
+    }
+  }
+
+  /**
+   * Reads the sessions and events of the traces, via the delegate so that this isn't traced. A
+   * query is acquired for each trace, plus one for the batch, and released when each completes.
+   */
+  void read(Session session, List<PendingTrace> batch) {
+    StringBuilder ids = new StringBuilder();
+    for (PendingTrace trace : batch) {
+      if (ids.length() > 0) ids.append(',');
+      ids.append(trace.traceId); // a uuid literal, so no quoting is needed
+    }
+    // the sessions of the batch, then the events of each trace in the same order
+    List<ListenableFuture<ResultSet>> queries = new ArrayList<>(batch.size() + 1);
+    ListenableFuture<List<ResultSet>> result;
+    try {
+      queries.add(query(session, new SimpleStatement("SELECT session_id,duration,"
+          + "started_at,coordinator FROM system_traces.sessions "
+          + "WHERE session_id IN (" + ids + ")")));
+      for (PendingTrace trace : batch) {
+        queries.add(query(session, new SimpleStatement("SELECT event_id,activity,source "
+            + "FROM system_traces.events WHERE session_id = ?", trace.traceId)
+            .setFetchSize(MAX_EVENTS)));
+      }
+      result = Futures.allAsList(queries);
+    } catch (RuntimeException e) { // ex. the session is closed
+      for (ListenableFuture<ResultSet> query : queries) query.cancel(false);
+      this.queries.release(batch.size() + 1 - queries.size()); // those not executed
+      drop(batch.size());
+      return;
+    }
+    result.addListener(new ReadBatch(this, result, batch), executor);
+  }
+
+  ListenableFuture<ResultSet> query(Session session, Statement statement) {
+    ResultSetFuture result = session.executeAsync(statement);
+    result.addListener(queries::release, MoreExecutors.directExecutor());
+    return result;
+  }
+
+  void drop(int count) {
+    pending.addAndGet(-count);
+    dropped.addAndGet(count);
+  }
+
+  static final class ReadBatch implements Runnable {
+    final QueryTraceImporter importer;
+    final ListenableFuture<List<ResultSet>> future;
+    final List<PendingTrace> batch;
+
+    ReadBatch(QueryTraceImporter importer, ListenableFuture<List<ResultSet>> future,
+        List<PendingTrace> batch) {
+      this.importer = importer;
+      this.future = future;
+      this.batch = batch;
+    }
+
+    @Override public void run() {
+      List<ResultSet> results;
+      try {
+        results = Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException | RuntimeException e) { // don't retry a struggling table
+        importer.drop(batch.size());
+        return;
+      }
+      Map<UUID, Row> sessions = new HashMap<>();
+      for (Row row : available(results.get(0))) sessions.put(row.getUUID("session_id"), row);
+
+      for (int i = 0; i < batch.size(); i++) {
+        PendingTrace trace = batch.get(i);
+        Row session = sessions.get(trace.traceId);
+        if (session == null || session.isNull("duration")) { // not finished writing
+          if (++trace.tries < MAX_TRIES && !importer.closed) {
+            trace.dueNanos = System.nanoTime() + importer.delayNanos;
+            importer.queue.offer(trace);
+          } else {
+            importer.drop(1);
+          }
+          continue;
+        }
+        try {
+          report(trace, session, available(results.get(i + 1)));
+        } catch (Throwable e) {
+          propagateIfFatal(e);
+        } finally {
+          importer.pending.decrementAndGet();
+        }
+      }
+    }
+
+    /** Returns the rows in the first page, as iterating would block to fetch others. */
+    static List<Row> available(ResultSet result) {
+      int count = result.getAvailableWithoutFetching();
+      List<Row> rows = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) rows.add(result.one());
+      return rows;
+    }
+  }
+
+  static void report(PendingTrace trace, Row session, List<Row> events) {
+    Span span = trace.tracer.newChild(trace.parent).name("query-trace");
+    span.tag(CASSANDRA_TRACE_SESSION_ID, trace.traceId.toString());
+    InetAddress coordinator = session.getInet("coordinator");
+    if (coordinator != null) span.tag(CASSANDRA_TRACE_COORDINATOR, coordinator.getHostAddress());
+
+    Date startedAt = session.getTimestamp("started_at");
+    long startTimestamp = startedAt.getTime() * 1000L;
+    for (Row event : events) {
+      String activity = event.getString("activity");
+      if (activity == null) continue;
+      long timestamp = timestampMicros(event.getUUID("event_id"));
+      // started_at has millisecond precision, so may be later than the first event
+      startTimestamp = Math.min(startTimestamp, timestamp);
+      InetAddress source = event.getInet("source");
+      span.annotate(timestamp, source == null || source.equals(coordinator)
+          ? activity : source.getHostAddress() + ": " + activity);
+    }
+    span.start(startTimestamp);
+    span.finish(startedAt.getTime() * 1000L + session.getInt("duration"));
+  }
+
+  /** Returns the epoch microseconds of a time UUID, such as a trace event ID. */
+  static long timestampMicros(UUID timeUuid) {
+    return (timeUuid.timestamp() - UUID_EPOCH_OFFSET) / 10L;
+  }
+
+  /** Stops importing. Traces not yet imported are dropped. */
+  @Override public void close() {
+    closed = true;
+    executor.shutdownNow();
+    int count = 0;
+    while (queue.poll() != null) count++;
+    drop(count);
+  }
+
+  @Override public String toString() {
+    return "QueryTraceImporter{pending=" + pending + ", dropped=" + dropped + "}";
+  }
+
+  static final class PendingTrace {
+    final Session session;
+    final Tracer tracer;
+    final TraceContext parent;
+    final UUID traceId;
+    long dueNanos;
+    int tries; // only accessed on the importer thread
+
+    PendingTrace(Session session, Tracer tracer, TraceContext parent, UUID traceId) {
+      this.session = session;
+      this.tracer = tracer;
+      this.parent = parent;
+      this.traceId = traceId;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts statements the driver had to re-prepare, because a node answered that it didn't know the
+ * prepared statement. This usually happens after nodes restart, and a burst of them, a re-prepare
+ * storm, adds a round trip to many requests at once.
+ *
+ * <p>Re-prepares are observed through a {@link com.datastax.driver.core.LatencyTracker}, so they
+ * are counted for every session of the traced session's cluster, sampled or not.
+ *
+ * @see TracingSession#rePrepares()
+ */
+public final class RePrepareCounter {
+  /** The count of one-second buckets {@link #ratePerSecond()} averages over. */
+  static final int WINDOW_SECONDS = 60;
+
+  final AtomicLong count = new AtomicLong();
+  // A ring of per-second counts, each stamped with the second it counts.
+  final AtomicLongArray secondCounts = new AtomicLongArray(WINDOW_SECONDS);
+  final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+
+  RePrepareCounter() {
+  }
+
+  void increment() {
+    increment(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+  }
+
+  void increment(long second) {
+    count.incrementAndGet();
+    int index = (int) Math.floorMod(second, (long) WINDOW_SECONDS); // nanoTime can be negative
+    long stamped = seconds.get(index);
+    if (stamped != second && seconds.compareAndSet(index, stamped, second)) {
+      secondCounts.set(index, 0L); // a racing increment may be lost when the bucket rolls over
+    }
+    secondCounts.incrementAndGet(index);
+  }
+
+  /** Returns the count of re-prepares since the session was created. */
+  public long count() {
+    return count.get();
+  }
+
+  /** Returns the average count of re-prepares per second, over the last minute. */
+  public double ratePerSecond() {
+    return ratePerSecond(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+  }
+
+  double ratePerSecond(long now) {
+    long sum = 0L;
+    for (int i = 0; i < WINDOW_SECONDS; i++) {
+      if (now - seconds.get(i) < WINDOW_SECONDS) sum += secondCounts.get(i);
+    }
+    return (double) sum / WINDOW_SECONDS;
+  }
+
+  @Override public String toString() {
+    return "RePrepareCounter{count=" + count() + "}";
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts requests sent to a replica of their partition, as opposed to a coordinator that had to
+ * forward them. With {@link com.datastax.driver.core.policies.TokenAwarePolicy}, misses should be
+ * rare. A high miss count usually means the policy isn't configured, or statements have no routing
+ * key, such as unprepared statements without {@link
+ * com.datastax.driver.core.SimpleStatement#setRoutingKey(java.nio.ByteBuffer...) one set}.
+ *
+ * <p>Requests are observed through a {@link com.datastax.driver.core.LatencyTracker}, so they are
+ * counted for every session of the traced session's cluster, sampled or not. Each retry or
+ * speculative execution counts as a request. Requests without a keyspace or routing key aren't
+ * counted.
+ *
+ * @see TracingSession#replicaHits()
+ */
+public final class ReplicaHitCounter {
+  final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+  ReplicaHitCounter() {
+  }
+
+  void record(boolean hit) {
+    (hit ? hits : misses).incrementAndGet();
+  }
+
+  /** Returns the count of requests sent to a replica of their partition. */
+  public long hits() {
+    return hits.get();
+  }
+
+  /** Returns the count of requests sent to a host that isn't a replica of their partition. */
+  public long misses() {
+    return misses.get();
+  }
+
+  /** Returns the ratio of hits to counted requests, or zero if none were counted. */
+  public double hitRatio() {
+    long hits = hits(), total = hits + misses();
+    return total > 0 ? (double) hits / total : 0.0;
+  }
+
+  @Override public String toString() {
+    return "ReplicaHitCounter{hits=" + hits() + ", misses=" + misses() + "}";
+  }
+}
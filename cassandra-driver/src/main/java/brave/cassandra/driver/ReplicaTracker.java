@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.SchemaChangeListener;
+import com.datastax.driver.core.SchemaChangeListenerBase;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TokenRange;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides whether the host a statement was sent to is a replica of its partition, and counts the
+ * result of every request in a {@link ReplicaHitCounter}.
+ *
+ * <p>With the default Murmur3 partitioner, the token of a routing key is hashed here, and looked up
+ * by binary search in a ring of token range ends, each with its replicas, copied from {@link
+ * Metadata} the first time a keyspace is seen. This avoids allocating a token per request, as
+ * {@link Metadata#getReplicas(String, ByteBuffer)} does, which is used for other partitioners.
+ * Rings are discarded when hosts join or leave, or a keyspace is added or changes, as its
+ * replication may have. A ring isn't kept while a range has no replicas, ex. before the keyspace or
+ * the token map is known, so requests aren't mistaken for replica misses.
+ * {@link LatencyScoringPolicy} looks up replicas the same way.
+ */
+final class ReplicaTracker implements LatencyTracker, Host.StateListener {
+  static final String MURMUR3_PARTITIONER = "org.apache.cassandra.dht.Murmur3Partitioner";
+
+  final Cluster cluster;
+  final Metadata metadata;
+  final ReplicaHitCounter counter = new ReplicaHitCounter();
+  final SchemaChangeListener schemaListener = new SchemaChangeListenerBase() {
+    @Override public void onKeyspaceAdded(KeyspaceMetadata keyspace) {
+      invalidate();
+    }
+
+    @Override public void onKeyspaceChanged(KeyspaceMetadata current, KeyspaceMetadata previous) {
+      invalidate();
+    }
+
+    @Override public void onKeyspaceRemoved(KeyspaceMetadata keyspace) {
+      invalidate();
+    }
+  };
+  volatile ConcurrentMap<String, Ring> rings = new ConcurrentHashMap<>();
+
+  ReplicaTracker(Cluster cluster) {
+    this.cluster = cluster;
+    this.metadata = cluster.getMetadata();
+  }
+
+  /** Returns null if the statement has no keyspace or routing key, or the ring isn't known. */
+  @Nullable Boolean isReplica(Statement statement, Host host) {
+    String keyspace = statement.getKeyspace();
+    if (keyspace == null) return null;
+    Set<?> replicas = replicas(keyspace, statement);
+    return replicas != null ? replicas.contains(host) : null;
+  }
+
+  /** Returns null if the statement has no routing key, or the ring isn't known. */
+  @Nullable Set<?> replicas(String keyspace, Statement statement) {
+    ByteBuffer routingKey = BatchSummary.routingKey(statement, cluster);
+    if (routingKey == null) return null;
+    if (!MURMUR3_PARTITIONER.equals(metadata.getPartitioner())) {
+      return metadata.getReplicas(Metadata.quote(keyspace), routingKey);
+    }
+    Ring ring = ring(keyspace);
+    if (ring == null) return null;
+    return ring.replicas(murmur3Token(routingKey));
+  }
+
+  @Nullable Ring ring(String keyspace) {
+    ConcurrentMap<String, Ring> rings = this.rings;
+    Ring result = rings.get(keyspace);
+    if (result != null) return result;
+    result = Ring.create(metadata, keyspace);
+    if (result != null) rings.putIfAbsent(keyspace, result);
+    return result;
+  }
+
+  void invalidate() {
+    rings = new ConcurrentHashMap<>();
+  }
+
+  @Override public void update(Host host, Statement statement, Exception exception,
+      long newLatencyNanos) {
+    Boolean replica = isReplica(statement, host);
+    if (replica != null) counter.record(replica);
+  }
+
+  @Override public void onAdd(Host host) {
+    invalidate();
+  }
+
+  @Override public void onUp(Host host) {
+  }
+
+  @Override public void onDown(Host host) {
+  }
+
+  @Override public void onRemove(Host host) {
+    invalidate();
+  }
+
+  @Override public void onRegister(Cluster cluster) {
+  }
+
+  @Override public void onUnregister(Cluster cluster) {
+  }
+
+  /** Token range ends in ascending order, and the replicas of the range ending at each. */
+  static final class Ring {
+    /** Returns null if the token map or the replicas of the keyspace aren't known yet. */
+    @Nullable static Ring create(Metadata metadata, String keyspace) {
+      TokenRange[] ranges = metadata.getTokenRanges().toArray(new TokenRange[0]);
+      if (ranges.length == 0) return null;
+      Arrays.sort(ranges, Comparator.comparing(TokenRange::getEnd));
+      long[] ends = new long[ranges.length];
+      Set<?>[] replicas = new Set<?>[ranges.length];
+      for (int i = 0; i < ranges.length; i++) {
+        ends[i] = (Long) ranges[i].getEnd().getValue();
+        replicas[i] = metadata.getReplicas(Metadata.quote(keyspace), ranges[i]);
+        if (replicas[i].isEmpty()) return null;
+      }
+      return new Ring(ends, replicas);
+    }
+
+    final long[] ends;
+    final Set<?>[] replicas;
+
+    Ring(long[] ends, Set<?>[] replicas) {
+      this.ends = ends;
+      this.replicas = replicas;
+    }
+
+    /** Ranges exclude their start and include their end. The last range wraps to the first. */
+    Set<?> replicas(long token) {
+      int i = Arrays.binarySearch(ends, token);
+      if (i < 0) i = -i - 1;
+      if (i == ends.length) i = 0;
+      return replicas[i];
+    }
+  }
+
+  /**
+   * Returns the token of a routing key, as Cassandra's Murmur3Partitioner does. This is the first
+   * half of a 128-bit MurmurHash3 with seed zero, including Cassandra's sign extension of the tail
+   * bytes.
+   */
+  static long murmur3Token(ByteBuffer key) {
+    int offset = key.position(), length = key.remaining(), blocks = length >> 4;
+    long h1 = 0L, h2 = 0L, c1 = 0x87c37b91114253d5L, c2 = 0x4cf5ad432745937fL;
+    for (int i = 0; i < blocks; i++) {
+      long k1 = block(key, offset + i * 16), k2 = block(key, offset + i * 16 + 8);
+      k1 *= c1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= c2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      k2 *= c2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= c1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = offset + blocks * 16;
+    long k1 = 0L, k2 = 0L;
+    switch (length & 15) {
+      case 15:
+        k2 ^= ((long) key.get(tail + 14)) << 48;
+      case 14:
+        k2 ^= ((long) key.get(tail + 13)) << 40;
+      case 13:
+        k2 ^= ((long) key.get(tail + 12)) << 32;
+      case 12:
+        k2 ^= ((long) key.get(tail + 11)) << 24;
+      case 11:
+        k2 ^= ((long) key.get(tail + 10)) << 16;
+      case 10:
+        k2 ^= ((long) key.get(tail + 9)) << 8;
+      case 9:
+        k2 ^= key.get(tail + 8);
+        k2 *= c2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= c1;
+        h2 ^= k2;
+      case 8:
+        k1 ^= ((long) key.get(tail + 7)) << 56;
+      case 7:
+        k1 ^= ((long) key.get(tail + 6)) << 48;
+      case 6:
+        k1 ^= ((long) key.get(tail + 5)) << 40;
+      case 5:
+        k1 ^= ((long) key.get(tail + 4)) << 32;
+      case 4:
+        k1 ^= ((long) key.get(tail + 3)) << 24;
+      case 3:
+        k1 ^= ((long) key.get(tail + 2)) << 16;
+      case 2:
+        k1 ^= ((long) key.get(tail + 1)) << 8;
+      case 1:
+        k1 ^= key.get(tail);
+        k1 *= c1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= c2;
+        h1 ^= k1;
+      default:
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    return h1 == Long.MIN_VALUE ? Long.MAX_VALUE : h1; // the minimum token is reserved
+  }
+
+  /** Reads eight bytes little-endian, regardless of the buffer's byte order. */
+  static long block(ByteBuffer key, int index) {
+    long result = 0L;
+    for (int i = 7; i >= 0; i--) result = (result << 8) | (key.get(index + i) & 0xffL);
+    return result;
+  }
+
+  static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
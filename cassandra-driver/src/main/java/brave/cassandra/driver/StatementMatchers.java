@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import brave.sampler.Matcher;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Statement;
+import java.util.Locale;
+
+/**
+ * Null safe matchers for use in {@link CassandraClientRuleSampler}. Combine them with {@link
+ * brave.sampler.Matchers#and(Matcher[])}.
+ *
+ * <p>These only depend on the query of a statement, so their result for a bound statement is the
+ * same for every execution of its prepared statement. The keyspace is read from the statement
+ * before parsing its query. Reading the table or operation of a query builder statement builds
+ * its query string each time, though it is only parsed once.
+ */
+public final class StatementMatchers {
+  /** Matches the keyspace of the statement, ignoring case. Ex. "payments" */
+  public static Matcher<Statement> keyspaceEquals(String keyspace) {
+    if (keyspace == null) throw new NullPointerException("keyspace == null");
+    if (keyspace.isEmpty()) throw new IllegalArgumentException("keyspace is empty");
+    return new KeyspaceEquals(keyspace);
+  }
+
+  /** Matches the table read or written by the statement, ignoring case. Ex. "users" */
+  public static Matcher<Statement> tableEquals(String table) {
+    if (table == null) throw new NullPointerException("table == null");
+    if (table.isEmpty()) throw new IllegalArgumentException("table is empty");
+    return new TableEquals(table);
+  }
+
+  /**
+   * Matches the operation of the statement, ignoring case. Ex. "SELECT", "INSERT", "UPDATE",
+   * "DELETE" or "BATCH".
+   */
+  public static Matcher<Statement> operationEquals(String operation) {
+    if (operation == null) throw new NullPointerException("operation == null");
+    if (operation.isEmpty()) throw new IllegalArgumentException("operation is empty");
+    return new OperationEquals(operation.toUpperCase(Locale.ROOT));
+  }
+
+  /** Matches statements of the type, including subtypes. Ex. {@code BatchStatement.class} */
+  public static Matcher<Statement> statementType(Class<? extends Statement> type) {
+    if (type == null) throw new NullPointerException("type == null");
+    return new StatementType(type);
+  }
+
+  @Nullable static QueryMetadata metadata(Statement statement) {
+    if (statement instanceof BoundStatement) return QueryMetadata.of((BoundStatement) statement);
+    if (statement instanceof RegularStatement) {
+      return QueryMetadata.of((RegularStatement) statement);
+    }
+    return null;
+  }
+
+  static final class KeyspaceEquals implements Matcher<Statement> {
+    final String keyspace;
+
+    KeyspaceEquals(String keyspace) {
+      this.keyspace = keyspace;
+    }
+
+    @Override public boolean matches(Statement statement) {
+      String value = statement.getKeyspace();
+      if (value == null && !(statement instanceof BatchStatement)) {
+        QueryMetadata metadata = metadata(statement);
+        if (metadata != null) value = metadata.keyspace;
+      }
+      return keyspace.equalsIgnoreCase(value);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof KeyspaceEquals)) return false;
+      return keyspace.equals(((KeyspaceEquals) o).keyspace);
+    }
+
+    @Override public int hashCode() {
+      return keyspace.hashCode();
+    }
+
+    @Override public String toString() {
+      return "KeyspaceEquals(" + keyspace + ")";
+    }
+  }
+
+  static final class TableEquals implements Matcher<Statement> {
+    final String table;
+
+    TableEquals(String table) {
+      this.table = table;
+    }
+
+    @Override public boolean matches(Statement statement) {
+      QueryMetadata metadata = metadata(statement);
+      return metadata != null && table.equalsIgnoreCase(metadata.table);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof TableEquals)) return false;
+      return table.equals(((TableEquals) o).table);
+    }
+
+    @Override public int hashCode() {
+      return table.hashCode();
+    }
+
+    @Override public String toString() {
+      return "TableEquals(" + table + ")";
+    }
+  }
+
+  static final class OperationEquals implements Matcher<Statement> {
+    final String operation;
+
+    OperationEquals(String operation) {
+      this.operation = operation;
+    }
+
+    @Override public boolean matches(Statement statement) {
+      if (statement instanceof BatchStatement) return "BATCH".equals(operation);
+      QueryMetadata metadata = metadata(statement);
+      return metadata != null && operation.equals(metadata.operation);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof OperationEquals)) return false;
+      return operation.equals(((OperationEquals) o).operation);
+    }
+
+    @Override public int hashCode() {
+      return operation.hashCode();
+    }
+
+    @Override public String toString() {
+      return "OperationEquals(" + operation + ")";
+    }
+  }
+
+  static final class StatementType implements Matcher<Statement> {
+    final Class<? extends Statement> type;
+
+    StatementType(Class<? extends Statement> type) {
+      this.type = type;
+    }
+
+    @Override public boolean matches(Statement statement) {
+      return type.isInstance(statement);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof StatementType)) return false;
+      return type.equals(((StatementType) o).type);
+    }
+
+    @Override public int hashCode() {
+      return type.hashCode();
+    }
+
+    @Override public String toString() {
+      return "StatementType(" + type.getSimpleName() + ")";
+    }
+  }
+
+  private StatementMatchers() {
+  }
+}
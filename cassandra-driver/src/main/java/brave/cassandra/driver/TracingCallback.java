@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.internal.Nullable;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_LWT_APPLIED;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_LWT_CAS_TIMEOUT;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_REPLICA;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_SERIAL_CONSISTENCY_LEVEL;
+
+/**
+ * Finishes a client span when its result set future completes.
+ *
+ * <p>This is added directly as a future listener, as opposed to {@code Futures.addCallback}, which
+ * would allocate another wrapper per request. When there is a {@link
+ * CassandraClientTracing#completionExecutor() completion executor}, the first run records the
+ * finish timestamp and submits this to it, and the second run finishes the span.
+ */
+final class TracingCallback implements Runnable {
+  static void addTo(ResultSetFuture future, Span span, @Nullable AttemptTracker.Attempts attempts,
+      long hostEvents, TracingSession session) {
+    future.addListener(new TracingCallback(future, span, attempts, hostEvents, session),
+        MoreExecutors.directExecutor());
+  }
+
+  final ResultSetFuture future;
+  final Span span;
+  @Nullable final AttemptTracker.Attempts attempts;
+  final long hostEvents;
+  final TracingSession session;
+  long finishTimestamp; // zero until the future completes
+
+  TracingCallback(ResultSetFuture future, Span span, @Nullable AttemptTracker.Attempts attempts,
+      long hostEvents, TracingSession session) {
+    this.future = future;
+    this.span = span;
+    this.attempts = attempts;
+    this.hostEvents = hostEvents;
+    this.session = session;
+  }
+
+  @Override public void run() {
+    if (finishTimestamp == 0L && session.completionExecutor != null) {
+      finishTimestamp = session.tracing.clock(span.context()).currentTimeMicroseconds();
+      try {
+        session.completionExecutor.execute(this); // the executor publishes the timestamp
+        return;
+      } catch (RejectedExecutionException e) { // ex. shutdown: finish here instead
+      }
+    }
+    ResultSet result;
+    try {
+      result = Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      finish(span, attempts, hostEvents, session, null, e.getCause(), finishTimestamp);
+      return;
+    } catch (RuntimeException | Error e) { // includes CancellationException
+      finish(span, attempts, hostEvents, session, null, e, finishTimestamp);
+      return;
+    }
+    finish(span, attempts, hostEvents, session, result, null, finishTimestamp);
+  }
+
+  /**
+   * @param hostEvents the {@link HostMonitor#sequence()} when the request started
+   * @param finishTimestamp zero to use the current time
+   */
+  static void finish(Span span, @Nullable AttemptTracker.Attempts attempts, long hostEvents,
+      TracingSession session, @Nullable ResultSet result, @Nullable Throwable error,
+      long finishTimestamp) {
+    if (attempts != null) {
+      ExecutionInfo info = error == null ? result.getExecutionInfo() : null;
+      session.attemptTracker.finish(attempts, span, info);
+    }
+    if (session.hostMonitor != null) session.hostMonitor.annotateSince(hostEvents, span);
+    if (error != null) {
+      if (session.lwtContention != null) parseLwtError(error, span);
+      span.error(error);
+    } else {
+      parseResponse(result, span, session);
+    }
+    if (finishTimestamp != 0L) {
+      span.finish(finishTimestamp);
+    } else {
+      span.finish();
+    }
+  }
+
+  static void parseResponse(ResultSet result, Span span, TracingSession session) {
+    Host queried = result.getExecutionInfo().getQueriedHost();
+    InetSocketAddress host = queried.getSocketAddress();
+    span.remoteIpAndPort(host.getHostString(), host.getPort());
+    if (session.hostLoads != null) session.hostLoads.tag(queried, span);
+    if (session.replicaTracker != null) {
+      Boolean replica =
+          session.replicaTracker.isReplica(result.getExecutionInfo().getStatement(), queried);
+      if (replica != null) span.tag(CASSANDRA_REPLICA, replica.toString());
+    }
+    if (session.lwtContention != null && LwtContentionCounter.isConditional(result)) {
+      span.tag(CASSANDRA_LWT_APPLIED, Boolean.toString(result.wasApplied()));
+      ConsistencyLevel serial =
+          result.getExecutionInfo().getStatement().getSerialConsistencyLevel();
+      if (serial == null) { // the statement uses the default
+        serial = session.getCluster().getConfiguration().getQueryOptions()
+            .getSerialConsistencyLevel();
+      }
+      span.tag(CASSANDRA_SERIAL_CONSISTENCY_LEVEL, serial.name());
+    }
+    span.remoteServiceName(session.remoteServiceName);
+    session.parser.response(result, span);
+    QueryTraceImporter importer = session.queryTraceImporter;
+    if (importer != null) importer.maybeImport(result, span, session);
+  }
+
+  /** For a CAS timeout, the consistency level is the serial one. */
+  static void parseLwtError(Throwable error, Span span) {
+    if (!LwtContentionCounter.isCasTimeout(error)) return;
+    span.tag(CASSANDRA_LWT_CAS_TIMEOUT, "true");
+    ConsistencyLevel serial = ((WriteTimeoutException) error).getConsistencyLevel();
+    if (serial != null) span.tag(CASSANDRA_SERIAL_CONSISTENCY_LEVEL, serial.name());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.internal.Nullable;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Completes with the result of a request, after finishing its span. This is the only listener
+ * added to the driver's future, so span completion and dependent stages share one registration.
+ *
+ * <p>Completing in the caller's trace context means dependent stages that run synchronously, on
+ * the driver's I/O thread, see the same context as the code that executed the statement.
+ */
+final class TracingCompletionStage extends CompletableFuture<ResultSet> implements Runnable {
+  final TracingSession session;
+  @Nullable final TraceContext invocationContext;
+  volatile ResultSetFuture future; // read by cancel(), possibly from another thread
+  @Nullable Span span;
+  @Nullable AttemptTracker.Attempts attempts;
+  long hostEvents;
+
+  TracingCompletionStage(TracingSession session, @Nullable TraceContext invocationContext) {
+    this.session = session;
+    this.invocationContext = invocationContext;
+  }
+
+  /** @param span null when the request wasn't sampled */
+  void listen(ResultSetFuture future, @Nullable Span span,
+      @Nullable AttemptTracker.Attempts attempts, long hostEvents) {
+    this.span = span;
+    this.attempts = attempts;
+    this.hostEvents = hostEvents;
+    this.future = future;
+    if (isCancelled()) future.cancel(false); // cancel() ran before the future was published
+    future.addListener(this, MoreExecutors.directExecutor());
+  }
+
+  @Override public void run() {
+    ResultSet result = null;
+    Throwable error = null;
+    try {
+      result = Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    } catch (RuntimeException | Error e) { // includes CancellationException
+      error = e;
+    }
+    if (span != null && session.completionExecutor != null) {
+      // submits to the executor
+      new TracingCallback(future, span, attempts, hostEvents, session).run();
+    } else if (span != null) {
+      TracingCallback.finish(span, attempts, hostEvents, session, result, error, 0L);
+    }
+    try (Scope scope = session.currentTraceContext.maybeScope(invocationContext)) {
+      if (error != null) {
+        completeExceptionally(error);
+      } else {
+        complete(result);
+      }
+    }
+  }
+
+  /** Cancels the request, as well as this stage. */
+  @Override public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean result = super.cancel(mayInterruptIfRunning);
+    ResultSetFuture future = this.future;
+    if (future != null) future.cancel(mayInterruptIfRunning);
+    return result;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Span;
+import brave.propagation.TraceContext;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static brave.Span.Kind.CLIENT;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_PAGE_SIZE;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Traces each page the driver fetches after the first, as a child of the request's client span.
+ *
+ * <p>A page is fetched when the current one is consumed and more remain on the server. Checking
+ * that only reads counters, so iterating rows already fetched doesn't allocate.
+ *
+ * <p>The page size is the count of rows the fetch added. With {@link #fetchMoreResults()}, rows
+ * remaining from the previous page are subtracted, as are rows read while the fetch was in flight.
+ */
+final class TracingResultSet implements ResultSet, Function<ResultSet, ResultSet> {
+  final ResultSet delegate;
+  final TracingSession session;
+  final TraceContext parent;
+  /** Non-null while {@link #fetchMoreResults()} is in flight, so we don't trace it twice. */
+  volatile Span asyncFetch;
+  /** Rows read while {@link #asyncFetch} is in flight, as they left the previous page. */
+  final AtomicInteger readDuringFetch = new AtomicInteger();
+
+  TracingResultSet(ResultSet delegate, TracingSession session, TraceContext parent) {
+    this.delegate = delegate;
+    this.session = session;
+    this.parent = parent;
+  }
+
+  @Override public Row one() {
+    if (willFetch()) fetchPage();
+    Row result = delegate.one();
+    if (result != null && asyncFetch != null) readDuringFetch.incrementAndGet();
+    return result;
+  }
+
+  @Override public boolean isExhausted() {
+    if (willFetch()) fetchPage();
+    return delegate.isExhausted();
+  }
+
+  boolean willFetch() {
+    return delegate.getAvailableWithoutFetching() == 0 && !delegate.isFullyFetched()
+        && asyncFetch == null;
+  }
+
+  /** Blocks on the next page, by asking the driver if the result set is exhausted. */
+  void fetchPage() {
+    Span span = newPageSpan();
+    try {
+      delegate.isExhausted();
+    } catch (RuntimeException | Error e) {
+      span.error(e);
+      span.finish();
+      throw e;
+    }
+    finishPage(span, 0); // nothing remained, or we wouldn't fetch
+  }
+
+  @Override public ListenableFuture<ResultSet> fetchMoreResults() {
+    if (delegate.isFullyFetched() || asyncFetch != null) {
+      return Futures.transform(delegate.fetchMoreResults(), this, directExecutor());
+    }
+    int remaining = delegate.getAvailableWithoutFetching();
+    readDuringFetch.set(0);
+    Span span = asyncFetch = newPageSpan();
+    ListenableFuture<ResultSet> result;
+    try {
+      result = delegate.fetchMoreResults();
+    } catch (RuntimeException | Error e) {
+      asyncFetch = null;
+      span.error(e);
+      span.finish();
+      throw e;
+    }
+    result.addListener(() -> {
+      asyncFetch = null;
+      try {
+        Uninterruptibles.getUninterruptibly(result);
+      } catch (ExecutionException e) {
+        span.error(e.getCause()).finish();
+        return;
+      } catch (RuntimeException | Error e) { // includes CancellationException
+        span.error(e).finish();
+        return;
+      }
+      finishPage(span, remaining - readDuringFetch.get());
+    }, directExecutor());
+    return Futures.transform(result, this, directExecutor());
+  }
+
+  /** Returns this wrapper in place of the delegate, when a fetch completes. */
+  @Override public ResultSet apply(ResultSet input) {
+    return this;
+  }
+
+  Span newPageSpan() {
+    return session.tracer.newChild(parent).name("fetch-page").kind(CLIENT).start();
+  }
+
+  /** @param previousRows rows of previous pages still available */
+  void finishPage(Span span, int previousRows) {
+    int pageSize = Math.max(0, delegate.getAvailableWithoutFetching() - previousRows);
+    span.tag(CASSANDRA_PAGE_SIZE, Integer.toString(pageSize));
+    ExecutionInfo info = delegate.getExecutionInfo(); // the last page fetched
+    if (info != null && info.getQueriedHost() != null) {
+      InetSocketAddress host = info.getQueriedHost().getSocketAddress();
+      span.remoteIpAndPort(host.getHostString(), host.getPort());
+    }
+    span.remoteServiceName(session.remoteServiceName);
+    span.finish();
+  }
+
+  @Override public List<Row> all() {
+    List<Row> result = new ArrayList<>(delegate.getAvailableWithoutFetching());
+    for (Row row : this) result.add(row);
+    return result;
+  }
+
+  @Override public Iterator<Row> iterator() {
+    return new Iterator<Row>() {
+      @Override public boolean hasNext() {
+        return !isExhausted();
+      }
+
+      @Override public Row next() {
+        Row result = one();
+        if (result == null) throw new NoSuchElementException();
+        return result;
+      }
+    };
+  }
+
+  @Override public ColumnDefinitions getColumnDefinitions() {
+    return delegate.getColumnDefinitions();
+  }
+
+  @Override public boolean wasApplied() {
+    return delegate.wasApplied();
+  }
+
+  @Override public boolean isFullyFetched() {
+    return delegate.isFullyFetched();
+  }
+
+  @Override public int getAvailableWithoutFetching() {
+    return delegate.getAvailableWithoutFetching();
+  }
+
+  @Override public ExecutionInfo getExecutionInfo() {
+    return delegate.getExecutionInfo();
+  }
+
+  @Override public List<ExecutionInfo> getAllExecutionInfo() {
+    return delegate.getAllExecutionInfo();
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+}
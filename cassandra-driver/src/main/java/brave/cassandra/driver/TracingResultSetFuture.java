@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.internal.Nullable;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs listeners in the trace context of the caller that executed the statement, and when pages are
+ * traced, returns a {@link TracingResultSet} when the first page has more after it.
+ *
+ * <p>The caller's context is captured once, here, as opposed to wrapping each listener. Listeners
+ * added with {@link MoreExecutors#directExecutor()}, such as by {@code Futures.addCallback}, are
+ * passed to the driver with this as their executor, so they don't allocate a wrapper at all.
+ * Listeners of other executors are wrapped each, as the executor needs a task that restores the
+ * context on its thread: queuing them here would allocate a node per listener anyway.
+ *
+ * <p>Unsampled statements are wrapped too when a context is current, so statements executed from
+ * their listeners stay in the same unsampled trace instead of starting new ones. That's one
+ * allocation per call, which is skipped when no context is current.
+ */
+final class TracingResultSetFuture implements ResultSetFuture, Executor {
+  final ResultSetFuture delegate;
+  final TracingSession session;
+  @Nullable final TraceContext parent; // null unless pages are traced
+  @Nullable final TraceContext invocationContext;
+  ResultSet wrapped; // guarded by this
+
+  TracingResultSetFuture(ResultSetFuture delegate, TracingSession session,
+      @Nullable TraceContext parent, @Nullable TraceContext invocationContext) {
+    this.delegate = delegate;
+    this.session = session;
+    this.parent = parent;
+    this.invocationContext = invocationContext;
+  }
+
+  ResultSet wrap(ResultSet resultSet) {
+    if (parent == null || resultSet.isFullyFetched()) return resultSet;
+    synchronized (this) { // the same result set is returned on each call
+      if (wrapped == null) wrapped = new TracingResultSet(resultSet, session, parent);
+      return wrapped;
+    }
+  }
+
+  @Override public ResultSet getUninterruptibly() {
+    return wrap(delegate.getUninterruptibly());
+  }
+
+  @Override public ResultSet getUninterruptibly(long timeout, TimeUnit unit)
+      throws TimeoutException {
+    return wrap(delegate.getUninterruptibly(timeout, unit));
+  }
+
+  @Override public ResultSet get() throws InterruptedException, ExecutionException {
+    return wrap(delegate.get());
+  }
+
+  @Override public ResultSet get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    return wrap(delegate.get(timeout, unit));
+  }
+
+  @Override public boolean cancel(boolean mayInterruptIfRunning) {
+    return delegate.cancel(mayInterruptIfRunning);
+  }
+
+  @Override public boolean isCancelled() {
+    return delegate.isCancelled();
+  }
+
+  @Override public boolean isDone() {
+    return delegate.isDone();
+  }
+
+  @Override public void addListener(Runnable listener, Executor executor) {
+    if (invocationContext == null) {
+      delegate.addListener(listener, executor);
+    } else if (executor == MoreExecutors.directExecutor()) {
+      delegate.addListener(listener, this);
+    } else {
+      delegate.addListener(() -> execute(listener), executor); // runs on the executor's thread
+    }
+  }
+
+  /** Runs the listener in the invocation context, on the thread that completed the future. */
+  @Override public void execute(Runnable listener) {
+    try (Scope scope = session.currentTraceContext.maybeScope(invocationContext)) {
+      listener.run();
+    }
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+}
@@ -16,11 +16,17 @@ package brave.cassandra.driver;
 import brave.Span;
 import brave.Tracer;
 import brave.Tracing;
+import brave.internal.Nullable;
 import brave.propagation.B3SingleFormat;
 import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
 import com.datastax.driver.core.AbstractSession;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.CloseFuture;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ProtocolVersion;
 import com.datastax.driver.core.RegularStatement;
@@ -29,15 +35,20 @@ import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.Statement;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
-import java.net.InetSocketAddress;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.nio.ByteBuffer;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
 
 import static brave.Span.Kind.CLIENT;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_KEYSPACE;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_QUERY;
+import static brave.cassandra.driver.CassandraTraceKeys.CASSANDRA_TABLE;
 
 public class TracingSession extends AbstractSession {
   public static Session create(Tracing tracing, Session delegate) {
@@ -53,61 +64,249 @@ public class TracingSession extends AbstractSession {
     return new TracingSession(cassandraTracing, delegate);
   }
 
+  final Tracing tracing;
   final Tracer tracer;
   final CurrentTraceContext currentTraceContext;
   final CassandraClientSampler sampler;
   final CassandraClientParser parser;
   final String remoteServiceName;
+  final int batchAnnotationLimit;
+  final boolean pageTracingEnabled;
+  @Nullable final CassandraClientTailSampler tailSampler;
+  @Nullable final ProvisionalSpan.Pool provisionalSpans;
+  @Nullable final QueryLatencies queryLatencies;
+  @Nullable final LatencyScoringPolicy latencyScoringPolicy;
+  @Nullable final LwtContentionCounter lwtContention;
+  final boolean prepareTracingEnabled;
+  @Nullable final RePrepareCounter rePrepares;
+  @Nullable final AttemptTracker attemptTracker;
+  @Nullable final Executor completionExecutor;
+  @Nullable final QueryTraceImporter queryTraceImporter;
+  @Nullable final HostMonitor hostMonitor;
+  @Nullable final HostLoadSnapshot hostLoads;
+  @Nullable final ReplicaTracker replicaTracker;
   final Session delegate;
 
   TracingSession(CassandraClientTracing cassandraTracing, Session target) {
     if (cassandraTracing == null) throw new NullPointerException("cassandraTracing == null");
     if (target == null) throw new NullPointerException("target == null");
     this.delegate = target;
-    tracer = cassandraTracing.tracing().tracer();
+    tracing = cassandraTracing.tracing();
+    tracer = tracing.tracer();
     currentTraceContext = cassandraTracing.tracing().currentTraceContext();
     sampler = cassandraTracing.sampler();
     parser = cassandraTracing.parser();
+    batchAnnotationLimit = cassandraTracing.batchAnnotationLimit();
+    pageTracingEnabled = cassandraTracing.pageTracingEnabled();
+    tailSampler = cassandraTracing.tailSampler();
+    provisionalSpans = tailSampler != null ? new ProvisionalSpan.Pool(256) : null;
+    queryLatencies = cassandraTracing.queryLatencies();
+    latencyScoringPolicy = cassandraTracing.latencyScoringPolicy();
+    lwtContention = cassandraTracing.lwtTracingEnabled() ? new LwtContentionCounter() : null;
+    completionExecutor = cassandraTracing.completionExecutor();
+    queryTraceImporter = cassandraTracing.queryTraceImporter();
+    prepareTracingEnabled = cassandraTracing.prepareTracingEnabled();
+    rePrepares = prepareTracingEnabled ? new RePrepareCounter() : null;
+    if (cassandraTracing.attemptTracingEnabled() || rePrepares != null) {
+      attemptTracker = new AttemptTracker(
+          cassandraTracing.tracing(), cassandraTracing.attemptTracingEnabled(), rePrepares);
+      target.getCluster().register(attemptTracker);
+    } else {
+      attemptTracker = null;
+    }
+    if (cassandraTracing.hostEventTracingEnabled()) {
+      hostMonitor = new HostMonitor(cassandraTracing.tracing());
+      target.getCluster().register((Host.StateListener) hostMonitor);
+      target.getCluster().register((LatencyTracker) hostMonitor);
+    } else {
+      hostMonitor = null;
+    }
+    hostLoads = cassandraTracing.hostLoadTaggingEnabled() ? HostLoadSnapshot.create(target) : null;
+    if (cassandraTracing.replicaTrackingEnabled()) {
+      replicaTracker = new ReplicaTracker(target.getCluster());
+      target.getCluster().register((LatencyTracker) replicaTracker);
+      target.getCluster().register((Host.StateListener) replicaTracker);
+      target.getCluster().register(replicaTracker.schemaListener);
+    } else {
+      replicaTracker = null;
+    }
     String remoteServiceName = cassandraTracing.remoteServiceName();
     this.remoteServiceName =
         remoteServiceName != null ? remoteServiceName : target.getCluster().getClusterName();
   }
 
+  /**
+   * Unsampled requests don't allocate anything here, besides what {@link Tracer#nextSpan} does.
+   * Sampled requests allocate one listener to finish the span. When propagation is enabled, they
+   * also allocate the encoded trace context, its buffer and a singleton payload map. When page
+   * tracing is enabled, they also allocate a future wrapper, and a result set wrapper when the
+   * result has more than one page.
+   *
+   * <p>When a {@link CassandraClientTailSampler} is configured, unsampled requests it times take a
+   * listener from a pool, instead of allocating one, and only parse if they are reported. When
+   * {@link QueryLatencies} are configured, every request also allocates a listener to record its
+   * latency.
+   *
+   * <p>When there is a current trace context, the returned future is wrapped once, so that
+   * listeners added to it run in that context, even though the driver completes it on its I/O
+   * thread. This way, statements executed from listeners continue the caller's trace.
+   */
   @Override public ResultSetFuture executeAsync(Statement statement) {
+    return execute(statement, null);
+  }
+
+  /**
+   * Like {@link #executeAsync(Statement)}, except this returns a {@link CompletionStage}, and
+   * failures are returned as opposed to thrown. This avoids converting a {@link ResultSetFuture}
+   * with another listener: the returned stage is the only listener added to finish the span.
+   *
+   * <p>Stages dependent on the result, which don't take an executor, run in the trace context that
+   * was current when this was called, even though the driver completes them on its I/O thread.
+   */
+  public CompletionStage<ResultSet> executeStage(Statement statement) {
+    TracingCompletionStage result = new TracingCompletionStage(this, currentTraceContext.get());
+    try {
+      execute(statement, result);
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /** When the stage isn't null, it is completed instead of adding a callback for the span. */
+  ResultSetFuture execute(Statement statement, @Nullable TracingCompletionStage stage) {
+    TraceContext invocationContext = stage == null ? currentTraceContext.get() : null;
     Span span = tracer.nextSpan(sampler, statement);
-    if (!span.isNoop()) parser.request(statement, span.kind(CLIENT));
+    if (span.isNoop()) { // don't parse or add a callback on noop
+      long thresholdNanos = tailSampler != null ? tailSampler.thresholdNanos(statement) : -1L;
+      ResultSetFuture result = thresholdNanos < 0
+          ? executeDelegate(maybeDecorate(statement, span), statement)
+          : executeProvisional(maybeDecorate(statement, span), statement, thresholdNanos);
+      if (stage != null) {
+        stage.listen(result, null, null, 0L);
+      } else if (invocationContext != null) {
+        return new TracingResultSetFuture(result, this, null, invocationContext);
+      }
+      return result;
+    }
 
-    maybeDecorate(statement, span);
+    parser.request(statement, span.kind(CLIENT));
+    if (batchAnnotationLimit > 0 && statement instanceof BatchStatement) {
+      annotateBatch((BatchStatement) statement, span);
+    }
+    Statement decorated = maybeDecorate(statement, span);
+    AttemptTracker.Attempts attempts =
+        attemptTracker != null ? attemptTracker.start(decorated, span.context()) : null;
+    long hostEvents = hostMonitor != null ? hostMonitor.sequence() : 0L;
 
     span.start();
     ResultSetFuture result;
     try {
-      result = delegate.executeAsync(statement);
+      result = executeDelegate(decorated, statement);
     } catch (RuntimeException | Error e) {
-      if (span.isNoop()) throw e;
+      if (attempts != null) attemptTracker.finish(attempts, span, null);
       span.error(e);
       span.finish();
       throw e;
     }
-    if (span.isNoop()) return result; // don't add callback on noop
-    Futures.addCallback(result, new FutureCallback<ResultSet>() {
-      @Override public void onSuccess(ResultSet result) {
-        InetSocketAddress host = result.getExecutionInfo().getQueriedHost().getSocketAddress();
-        span.remoteIpAndPort(host.getHostString(), host.getPort());
-        span.remoteServiceName(remoteServiceName);
-        parser.response(result, span);
-        span.finish();
+    if (pageTracingEnabled) {
+      ResultSetFuture paging =
+          new TracingResultSetFuture(result, this, span.context(), invocationContext);
+      if (stage != null) {
+        stage.listen(paging, span, attempts, hostEvents); // completes with the paging result set
+      } else {
+        TracingCallback.addTo(result, span, attempts, hostEvents, this);
       }
+      return paging;
+    }
+    if (stage != null) {
+      stage.listen(result, span, attempts, hostEvents);
+      return result;
+    }
+    TracingCallback.addTo(result, span, attempts, hostEvents, this);
+    if (invocationContext == null) return result;
+    return new TracingResultSetFuture(result, this, null, invocationContext);
+  }
 
-      @Override public void onFailure(Throwable e) {
-        span.error(e);
-        span.finish();
-      }
-    });
+  ResultSetFuture executeProvisional(Statement decorated, Statement statement,
+      long thresholdNanos) {
+    long startNanos = System.nanoTime();
+    ResultSetFuture result;
+    try {
+      result = executeDelegate(decorated, statement);
+    } catch (RuntimeException | Error e) {
+      ProvisionalSpan.report(this, statement, startNanos, System.nanoTime() - startNanos, null, e);
+      throw e;
+    }
+    ProvisionalSpan.addTo(result, statement, thresholdNanos, startNanos, this);
+    return result;
+  }
+
+  /** Executes the decorated statement, recording its latency if configured. */
+  ResultSetFuture executeDelegate(Statement decorated, Statement statement) {
+    if (queryLatencies == null && latencyScoringPolicy == null && lwtContention == null) {
+      return delegate.executeAsync(decorated);
+    }
+    long startNanos = System.nanoTime();
+    ResultSetFuture result = delegate.executeAsync(decorated);
+    LatencyRecorder.addTo(result, statement, startNanos, this);
     return result;
   }
 
-  void maybeDecorate(Statement statement, Span span) {
+  /**
+   * Returns the latencies recorded for this session's statements, or null if {@link
+   * CassandraClientTracing#queryLatencies()} isn't configured.
+   */
+  @Nullable public QueryLatencies queryLatencies() {
+    return queryLatencies;
+  }
+
+  /**
+   * Returns the re-prepares counted for this session's cluster, or null if {@link
+   * CassandraClientTracing#prepareTracingEnabled()} is false.
+   */
+  @Nullable public RePrepareCounter rePrepares() {
+    return rePrepares;
+  }
+
+  /**
+   * Returns the requests sent to a replica of their partition, or not, counted for this session's
+   * cluster, or null if {@link CassandraClientTracing#replicaTrackingEnabled()} is false.
+   */
+  @Nullable public ReplicaHitCounter replicaHits() {
+    return replicaTracker != null ? replicaTracker.counter : null;
+  }
+
+  /**
+   * Returns the lightweight transactions of this session counted per table, or null if {@link
+   * CassandraClientTracing#lwtTracingEnabled()} is false.
+   */
+  @Nullable public LwtContentionCounter lwtContention() {
+    return lwtContention;
+  }
+
+  /**
+   * Annotates the query of each statement in the batch, up to the configured limit. Like the
+   * {@link CassandraTraceKeys#CASSANDRA_QUERY query tag}, this is the CQL of prepared statements
+   * or the fingerprint of others.
+   */
+  void annotateBatch(BatchStatement batch, Span span) {
+    int remaining = batchAnnotationLimit;
+    for (Statement statement : batch.getStatements()) {
+      if (remaining-- == 0) break;
+      String query = null;
+      if (statement instanceof BoundStatement) {
+        query = QueryMetadata.of((BoundStatement) statement).query;
+      } else if (statement instanceof RegularStatement) { // a fingerprint, so literals don't leak
+        query = QueryMetadata.of((RegularStatement) statement).query;
+      }
+      if (query != null) span.annotate(query);
+    }
+  }
+
+  /** Returns the statement to execute, after adding any trace context to it. */
+  Statement maybeDecorate(Statement statement, Span span) {
+    return statement;
   }
 
   @Override protected ListenableFuture<PreparedStatement> prepareAsync(
@@ -118,7 +317,8 @@ public class TracingSession extends AbstractSession {
   }
 
   @Override public ListenableFuture<PreparedStatement> prepareAsync(String query) {
-    return delegate.prepareAsync(query);
+    if (!prepareTracingEnabled) return delegate.prepareAsync(query);
+    return prepareAsync(new SimpleStatement(query));
   }
 
   @Override public String getLoggedKeyspace() {
@@ -134,10 +334,44 @@ public class TracingSession extends AbstractSession {
   }
 
   @Override public ListenableFuture<PreparedStatement> prepareAsync(RegularStatement statement) {
-    return delegate.prepareAsync(statement);
+    if (!prepareTracingEnabled) return delegate.prepareAsync(statement);
+    Span span = tracer.nextSpan(sampler, statement);
+    if (span.isNoop()) return delegate.prepareAsync(statement);
+
+    span.kind(CLIENT).name("prepare");
+    QueryMetadata metadata = QueryMetadata.parse(statement.getQueryString());
+    String keyspace = statement.getKeyspace();
+    if (keyspace == null) keyspace = metadata.keyspace;
+    if (keyspace != null) span.tag(CASSANDRA_KEYSPACE, keyspace);
+    span.tag(CASSANDRA_QUERY, metadata.query);
+    if (metadata.table != null) span.tag(CASSANDRA_TABLE, metadata.table);
+    span.remoteServiceName(remoteServiceName);
+
+    span.start();
+    ListenableFuture<PreparedStatement> result;
+    try {
+      result = delegate.prepareAsync(statement);
+    } catch (RuntimeException | Error e) {
+      span.error(e);
+      span.finish();
+      throw e;
+    }
+    result.addListener(new FinishPrepareSpan(result, span), MoreExecutors.directExecutor());
+    return result;
   }
 
   @Override public CloseFuture closeAsync() {
+    if (attemptTracker != null) delegate.getCluster().unregister(attemptTracker);
+    if (hostMonitor != null) {
+      delegate.getCluster().unregister((Host.StateListener) hostMonitor);
+      delegate.getCluster().unregister((LatencyTracker) hostMonitor);
+    }
+    if (hostLoads != null) hostLoads.close();
+    if (replicaTracker != null) {
+      delegate.getCluster().unregister((LatencyTracker) replicaTracker);
+      delegate.getCluster().unregister((Host.StateListener) replicaTracker);
+      delegate.getCluster().unregister(replicaTracker.schemaListener);
+    }
     return delegate.closeAsync();
   }
 
@@ -153,20 +387,86 @@ public class TracingSession extends AbstractSession {
     return delegate.getState();
   }
 
+  static final class FinishPrepareSpan implements Runnable {
+    final ListenableFuture<PreparedStatement> future;
+    final Span span;
+
+    FinishPrepareSpan(ListenableFuture<PreparedStatement> future, Span span) {
+      this.future = future;
+      this.span = span;
+    }
+
+    @Override public void run() {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        span.error(e.getCause());
+      } catch (RuntimeException | Error e) { // includes CancellationException
+        span.error(e);
+      }
+      span.finish();
+    }
+  }
+
   // o.a.c.tracing.Tracing.newSession must use the same propagation format
   static final class PropagatingTracingSession extends TracingSession {
+    /** B3 single "deny" format, as only the sampling decision is needed downstream. */
+    static final ByteBuffer NOT_SAMPLED = ByteBuffer.wrap(new byte[] {'0'}).asReadOnlyBuffer();
+
+    final boolean compact;
+    final String key;
+    final ByteBuffer notSampled;
+
     PropagatingTracingSession(CassandraClientTracing cassandraTracing, Session target) {
       super(cassandraTracing, target);
+      compact = cassandraTracing.compactPropagationEnabled();
+      key = compact ? CompactTraceContext.KEY : "b3";
+      notSampled = compact ? CompactTraceContext.NOT_SAMPLED : NOT_SAMPLED;
     }
 
-    @Override void maybeDecorate(Statement statement, Span span) {
+    /**
+     * {@link Statement#setOutgoingPayload(Map)} copies its input unless it is already an {@link
+     * ImmutableMap}, so this builds one directly. When the statement has no other payload, that's
+     * a singleton map. The unsampled value is a duplicate of a shared buffer, so a consumer reading
+     * it relatively doesn't move the position seen by other statements.
+     */
+    @Override Statement maybeDecorate(Statement statement, Span span) {
       statement.enableTracing();
-      Map<String, ByteBuffer> payload = new LinkedHashMap<>();
-      if (statement.getOutgoingPayload() != null) {
-        payload.putAll(statement.getOutgoingPayload());
+      Map<String, ByteBuffer> existing = statement.getOutgoingPayload();
+      boolean sampled = !Boolean.FALSE.equals(span.context().sampled());
+      if (existing == null || existing.isEmpty() || isOnlyTraceContext(existing)) {
+        statement.setOutgoingPayload(ImmutableMap.of(key, sampled ? write(span) : notSampled()));
+        return statement;
+      }
+
+      ImmutableMap.Builder<String, ByteBuffer> payload = ImmutableMap.builder();
+      for (Map.Entry<String, ByteBuffer> entry : existing.entrySet()) {
+        if (!isTraceContextKey(entry.getKey())) payload.put(entry); // replace any previous value
       }
-      payload.put("b3", ByteBuffer.wrap(B3SingleFormat.writeB3SingleFormatAsBytes(span.context())));
-      statement.setOutgoingPayload(payload);
+      payload.put(key, sampled ? write(span) : notSampled());
+      statement.setOutgoingPayload(payload.build());
+      return statement;
+    }
+
+    ByteBuffer notSampled() {
+      return notSampled.duplicate(); // read-only, with its own position
+    }
+
+    ByteBuffer write(Span span) {
+      return compact ? CompactTraceContext.write(span.context()) : writeB3(span);
+    }
+
+    static boolean isOnlyTraceContext(Map<String, ByteBuffer> payload) {
+      return payload.size() == 1 && isTraceContextKey(payload.keySet().iterator().next());
+    }
+
+    /** Either format could be in the payload of a re-executed statement. */
+    static boolean isTraceContextKey(String key) {
+      return "b3".equals(key) || CompactTraceContext.KEY.equals(key);
+    }
+
+    static ByteBuffer writeB3(Span span) {
+      return ByteBuffer.wrap(B3SingleFormat.writeB3SingleFormatAsBytes(span.context()));
     }
   }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.propagation.TraceContext;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import java.lang.reflect.Field;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AttemptTrackerTest {
+  static final Exception CANCELLED = cancelled();
+
+  TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  AttemptTracker.Attempts attempts =
+      new AttemptTracker.Attempts(new SimpleStatement("SELECT * FROM users"), context);
+
+  @Test public void complete_expectsRemainingExecutions() {
+    assertThat(attempts.add(attempt(null))).isFalse(); // buffered
+
+    attempts.complete(3);
+
+    assertThat(attempts.late()).isEqualTo(2);
+    assertThat(attempts.add(attempt(CANCELLED))).isTrue();
+    assertThat(attempts.isDone()).isFalse();
+    assertThat(attempts.add(attempt(CANCELLED))).isTrue();
+    assertThat(attempts.isDone()).isTrue();
+  }
+
+  @Test public void complete_retriesDontEndExecutions() {
+    attempts.add(attempt(new OperationTimedOutException(null)));
+
+    attempts.complete(1);
+
+    assertThat(attempts.late()).isEqualTo(1); // the winner
+  }
+
+  @Test public void complete_failedExpectsNothing() {
+    attempts.add(attempt(new OperationTimedOutException(null)));
+
+    attempts.complete(0);
+
+    assertThat(attempts.isDone()).isTrue();
+  }
+
+  @Test public void outcome() {
+    assertThat(AttemptTracker.outcome(null)).isEqualTo("success");
+    assertThat(AttemptTracker.outcome(CANCELLED)).isEqualTo("cancelled");
+    assertThat(AttemptTracker.outcome(new OperationTimedOutException(null))).isEqualTo("timeout");
+    assertThat(AttemptTracker.outcome(new IllegalStateException())).isEqualTo("error");
+  }
+
+  static AttemptTracker.Attempt attempt(Exception exception) {
+    return new AttemptTracker.Attempt(null, exception, 1L, 2L);
+  }
+
+  /** The driver's type isn't public, so its singleton is read reflectively. */
+  static Exception cancelled() {
+    try {
+      Class<?> type = Class.forName(AttemptTracker.CANCELLED_SPECULATIVE_EXECUTION);
+      Field instance = type.getDeclaredField("INSTANCE");
+      instance.setAccessible(true);
+      return (Exception) instance.get(null);
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
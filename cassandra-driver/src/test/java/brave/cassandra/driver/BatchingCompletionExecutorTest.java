@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BatchingCompletionExecutorTest {
+  BatchingCompletionExecutor executor = BatchingCompletionExecutor.create();
+
+  @After public void close() {
+    executor.close();
+  }
+
+  @Test public void runsInOrderOnLowPriorityThread() throws Exception {
+    List<Integer> ran = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(1000);
+    for (int i = 0; i < 1000; i++) {
+      int index = i;
+      executor.execute(() -> {
+        assertThat(Thread.currentThread().getPriority()).isEqualTo(Thread.MIN_PRIORITY);
+        ran.add(index);
+        done.countDown();
+      });
+    }
+
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    for (int i = 0; i < 1000; i++) assertThat(ran.get(i)).isEqualTo(i);
+  }
+
+  @Test public void keepsRunningAfterException() throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute(() -> {
+      throw new IllegalStateException();
+    });
+    executor.execute(done::countDown);
+
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void closeRunsQueuedTasks() {
+    List<Integer> ran = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < 100; i++) executor.execute(() -> ran.add(1));
+
+    executor.close();
+
+    assertThat(ran).hasSize(100);
+  }
+
+  @Test public void runsOnCallerWhenFull() throws Exception {
+    executor.close();
+    executor = BatchingCompletionExecutor.create(1);
+    CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      awaitUninterruptibly(release);
+    });
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+    executor.execute(() -> threads.add(Thread.currentThread())); // fills the queue
+    executor.execute(() -> threads.add(Thread.currentThread()));
+    release.countDown();
+    executor.close();
+
+    assertThat(threads).containsExactly(Thread.currentThread(), executor.thread);
+  }
+
+  @Test public void rejectsAfterFatalError() throws Exception {
+    executor.execute(() -> {
+      throw new LinkageError("fatal");
+    });
+    executor.thread.join(10000L);
+
+    assertThat(executor.thread.isAlive()).isFalse();
+    assertThatThrownBy(() -> executor.execute(() -> {
+    })).isInstanceOf(RejectedExecutionException.class);
+  }
+
+  @Test public void create_validatesArguments() {
+    assertThatThrownBy(() -> BatchingCompletionExecutor.create(0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void rejectsAfterClose() {
+    executor.close();
+
+    assertThatThrownBy(() -> executor.execute(() -> {
+    })).isInstanceOf(RejectedExecutionException.class);
+  }
+
+  static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
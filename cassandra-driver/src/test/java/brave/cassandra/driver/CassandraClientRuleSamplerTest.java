@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.sampler.BoundarySampler;
+import brave.sampler.Sampler;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.SimpleStatement;
+import org.junit.Test;
+
+import static brave.cassandra.driver.StatementMatchers.keyspaceEquals;
+import static brave.cassandra.driver.StatementMatchers.operationEquals;
+import static brave.cassandra.driver.StatementMatchers.statementType;
+import static brave.cassandra.driver.StatementMatchers.tableEquals;
+import static brave.sampler.Matchers.and;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CassandraClientRuleSamplerTest {
+  CassandraClientRuleSampler sampler = CassandraClientRuleSampler.newBuilder()
+      .putRule(keyspaceEquals("payments"), Sampler.ALWAYS_SAMPLE)
+      .putRule(and(tableEquals("events"), operationEquals("select")), Sampler.NEVER_SAMPLE)
+      .putRule(statementType(BatchStatement.class), Sampler.ALWAYS_SAMPLE)
+      .build();
+
+  @Test public void matchesKeyspace() {
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM payments.charges")))
+        .isTrue();
+    assertThat(sampler.trySample(
+        new SimpleStatement("SELECT * FROM charges").setKeyspace("Payments")))
+        .isTrue();
+  }
+
+  @Test public void matchesTableAndOperation() {
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM analytics.events")))
+        .isFalse();
+    assertThat(sampler.trySample(
+        new SimpleStatement("INSERT INTO analytics.events (id) VALUES (1)")))
+        .isNull(); // operation doesn't match, so no rule does
+  }
+
+  @Test public void traceIdSamplersStayProbabilistic() {
+    CassandraClientRuleSampler sampler = CassandraClientRuleSampler.newBuilder()
+        .putRule(keyspaceEquals("analytics"), BoundarySampler.create(0.5f))
+        .build();
+
+    int sampled = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (sampler.trySample(new SimpleStatement("SELECT * FROM analytics.events"))) sampled++;
+    }
+    assertThat(sampled).isBetween(1, 999);
+  }
+
+  @Test public void matchesStatementType() {
+    assertThat(sampler.trySample(new BatchStatement())).isTrue();
+  }
+
+  @Test public void firstMatchingRuleWins() {
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM payments.events")))
+        .isTrue();
+  }
+
+  @Test public void putRule_replacesEqualMatcher() {
+    CassandraClientRuleSampler sampler = CassandraClientRuleSampler.newBuilder()
+        .putRule(keyspaceEquals("payments"), Sampler.ALWAYS_SAMPLE)
+        .putRule(keyspaceEquals("payments"), Sampler.NEVER_SAMPLE)
+        .build();
+
+    assertThat(sampler.rules).hasSize(1);
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM payments.charges")))
+        .isFalse();
+  }
+
+  @Test public void deferWhenNoRuleMatches() {
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM users"))).isNull();
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExecutionInfoParserTest {
+  @Test public void count_cached() {
+    assertThat(ExecutionInfoParser.count(42)).isEqualTo("42")
+        .isSameAs(ExecutionInfoParser.count(42));
+    assertThat(ExecutionInfoParser.count(ExecutionInfoParser.MAX_CACHED_COUNT))
+        .isSameAs(ExecutionInfoParser.count(ExecutionInfoParser.MAX_CACHED_COUNT));
+  }
+
+  @Test public void count_uncached() {
+    int count = ExecutionInfoParser.MAX_CACHED_COUNT + 1;
+    assertThat(ExecutionInfoParser.count(count)).isEqualTo(Integer.toString(count));
+    assertThat(ExecutionInfoParser.count(-1)).isEqualTo("-1");
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HostLoadSnapshotTest {
+  @Test public void hostLoad() {
+    HostLoadSnapshot.HostLoad load = new HostLoadSnapshot.HostLoad(512, 2, 1024);
+
+    assertThat(load.inFlight).isEqualTo("512");
+    assertThat(load.utilization).isEqualTo("25");
+  }
+
+  @Test public void hostLoad_noConnections() {
+    HostLoadSnapshot.HostLoad load = new HostLoadSnapshot.HostLoad(0, 0, 1024);
+
+    assertThat(load.inFlight).isEqualTo("0");
+    assertThat(load.utilization).isEqualTo("0");
+  }
+
+  @Test public void hostLoad_overCapacity() { // requests can queue for a connection
+    HostLoadSnapshot.HostLoad load = new HostLoadSnapshot.HostLoad(3000, 1, 1024);
+
+    assertThat(load.utilization).isEqualTo("292");
+  }
+}
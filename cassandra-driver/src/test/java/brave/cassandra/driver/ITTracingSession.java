@@ -19,16 +19,36 @@ import brave.propagation.B3SingleFormat;
 import brave.propagation.CurrentTraceContext.Scope;
 import brave.propagation.SamplingFlags;
 import brave.propagation.TraceContext;
+import brave.propagation.TraceContextOrSamplingFlags;
+import brave.sampler.Sampler;
 import brave.test.ITRemote;
 import cassandra.CassandraRule;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.BusyPoolException;
 import com.datastax.driver.core.exceptions.DriverInternalError;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.mapping.Mapper;
+import com.datastax.driver.mapping.MappingManager;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -36,9 +56,13 @@ import org.junit.Test;
 
 import static brave.Span.Kind.CLIENT;
 import static brave.propagation.SamplingFlags.NOT_SAMPLED;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static org.junit.Assume.assumeTrue;
 
@@ -86,6 +110,39 @@ public class ITTracingSession extends ITRemote {
   }
 
   // CASSANDRA-12835 particularly is in 3.11, which fixes simple (non-bound) statement tracing
+  @Test public void listenersRunInInvocationContext() throws Exception {
+    TraceContext parent = newTraceContext(SamplingFlags.SAMPLED);
+    BlockingQueue<TraceContext> direct = new LinkedBlockingQueue<>();
+    BlockingQueue<TraceContext> executor = new LinkedBlockingQueue<>();
+    ExecutorService otherThread = Executors.newSingleThreadExecutor();
+    try {
+      try (Scope scope = currentTraceContext.newScope(parent)) {
+        ResultSetFuture future = session.executeAsync(prepared.bind());
+        future.addListener(() -> direct.add(currentTraceContext.get()),
+            MoreExecutors.directExecutor());
+        future.addListener(() -> executor.add(currentTraceContext.get()), otherThread);
+      }
+
+      assertThat(direct.poll(3, TimeUnit.SECONDS)).isEqualTo(parent);
+      assertThat(executor.poll(3, TimeUnit.SECONDS)).isEqualTo(parent);
+    } finally {
+      otherThread.shutdown();
+    }
+    assertChildOf(testSpanHandler.takeRemoteSpan(CLIENT), parent);
+  }
+
+  @Test public void listenersRunInInvocationContext_notSampled() throws Exception {
+    TraceContext parent = newTraceContext(NOT_SAMPLED);
+    BlockingQueue<TraceContext> direct = new LinkedBlockingQueue<>();
+    try (Scope scope = currentTraceContext.newScope(parent)) {
+      session.executeAsync(prepared.bind())
+          .addListener(() -> direct.add(currentTraceContext.get()),
+              MoreExecutors.directExecutor());
+    }
+
+    assertThat(direct.poll(3, TimeUnit.SECONDS)).isEqualTo(parent);
+  }
+
   @Test public void propagatesTraceIds_regularStatement() {
     session.execute("SELECT * from system.schema_keyspaces");
 
@@ -102,6 +159,58 @@ public class ITTracingSession extends ITRemote {
     assertSameIds(testSpanHandler.takeRemoteSpan(CLIENT), extracted);
   }
 
+  @Test public void propagatesTraceIds_compact() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing)
+        .propagationEnabled(true).compactPropagationEnabled(true));
+
+    invokeBoundStatement();
+
+    Map<String, ByteBuffer> payload = CustomPayloadCaptor.ref.get();
+    assertThat(payload).containsOnlyKeys("tp");
+    ByteBuffer compact = payload.get("tp");
+    assertThat(compact.remaining()).isEqualTo(26);
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    int pos = compact.position();
+    assertThat(String.format("%016x", compact.getLong(pos + 9))).isEqualTo(span.traceId());
+    assertThat(String.format("%016x", compact.getLong(pos + 17))).isEqualTo(span.id());
+    assertThat(compact.get(pos + 25)).isEqualTo((byte) 1); // sampled
+  }
+
+  @Test public void propagatesTraceIds_compactNotSampled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing)
+        .propagationEnabled(true).compactPropagationEnabled(true));
+
+    try (Scope scope = currentTraceContext.newScope(newTraceContext(NOT_SAMPLED))) {
+      invokeBoundStatement();
+    }
+
+    ByteBuffer compact = CustomPayloadCaptor.ref.get().get("tp");
+    assertThat(compact.remaining()).isEqualTo(2);
+    assertThat(compact.get(compact.position() + 1)).isZero();
+  }
+
+  @Test public void propagatesTraceIds_keepsExistingPayload() {
+    BoundStatement statement = prepared.bind();
+    statement.setOutgoingPayload(singletonMap("tenant", ByteBuffer.wrap(new byte[] {'a'})));
+    session.execute(statement);
+
+    assertThat(CustomPayloadCaptor.ref.get()).containsKeys("tenant", "b3");
+    assertSameIds(testSpanHandler.takeRemoteSpan(CLIENT), extractB3Header());
+  }
+
+  @Test public void propagatesTraceIds_replacesPreviousTraceIds() {
+    BoundStatement statement = prepared.bind();
+    session.execute(statement);
+    TraceContext first = extractB3Header();
+    session.execute(statement);
+
+    assertThat(extractB3Header().spanId()).isNotEqualTo(first.spanId());
+    testSpanHandler.takeRemoteSpan(CLIENT);
+    testSpanHandler.takeRemoteSpan(CLIENT);
+  }
+
   @Test public void propagationDisabledByDefault() {
     session.close();
     session = newSession(CassandraClientTracing.newBuilder(tracing));
@@ -119,8 +228,8 @@ public class ITTracingSession extends ITRemote {
       invokeBoundStatement();
     }
 
-    TraceContext extracted = extractB3Header();
-    assertThat(extracted.sampled()).isFalse();
+    // unsampled requests only propagate the sampling decision
+    assertThat(extractB3Flags().sampled()).isFalse();
 
     // test rule ensures no span was sampled
   }
@@ -138,6 +247,402 @@ public class ITTracingSession extends ITRemote {
         .isEqualTo("bound-statement");
   }
 
+  @Test public void tagsBoundStatement() {
+    invokeBoundStatement();
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags()).containsOnly(
+        entry("cassandra.keyspace", "system"),
+        entry("cassandra.query", "SELECT * from system.schema_keyspaces"),
+        entry("cassandra.table", "schema_keyspaces"),
+        entry("cassandra.operation", "SELECT")
+    );
+  }
+
+  @Test public void tagsSimpleStatement_fingerprint() {
+    session.execute("SELECT * FROM system.schema_keyspaces WHERE keyspace_name IN ('a', 'b')");
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags()).containsOnly(
+        entry("cassandra.keyspace", "system"),
+        entry("cassandra.query",
+            "SELECT * FROM system.schema_keyspaces WHERE keyspace_name IN (?)"),
+        entry("cassandra.table", "schema_keyspaces"),
+        entry("cassandra.operation", "SELECT")
+    );
+  }
+
+  @Test public void tagsBatchStatement() {
+    PreparedStatement insert = prepareUsersInsert();
+    BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED)
+        .add(insert.bind(1, "alice"))
+        .add(insert.bind(2, "bob"))
+        .add(insert.bind(1, "alice"));
+    session.execute(batch);
+
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    assertThat(span.name()).isEqualTo("batch-statement");
+    assertThat(span.tags()).contains(
+        entry("cassandra.operation", "BATCH"),
+        entry("cassandra.batch.type", "UNLOGGED"),
+        entry("cassandra.batch.size", "3"),
+        entry("cassandra.batch.tables", "users"),
+        entry("cassandra.batch.partitions", "2")
+    );
+    assertThat(span.annotations()).isEmpty();
+  }
+
+  @Test public void batchAnnotationLimit() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).batchAnnotationLimit(2));
+    PreparedStatement insert = prepareUsersInsert();
+    String update = "UPDATE brave.users SET name = 'bob' WHERE id = 2";
+    session.execute(new BatchStatement()
+        .add(insert.bind(1, "alice"))
+        .add(new SimpleStatement(update))
+        .add(insert.bind(3, "carol")));
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).annotations())
+        .extracting(Map.Entry::getValue)
+        .containsExactly(insert.getQueryString(), "UPDATE brave.users SET name = ? WHERE id = ?");
+  }
+
+  @Test public void pageTracingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).pageTracingEnabled(true));
+    PreparedStatement insert = prepareUsersInsert();
+    Session unwrapped = ((TracingSession) session).delegate;
+    for (int i = 0; i < 5; i++) unwrapped.execute(insert.bind(i, "user" + i));
+
+    Statement select = new SimpleStatement("SELECT * FROM brave.users").setFetchSize(2);
+    int rows = 0;
+    for (Row row : session.execute(select)) {
+      rows++;
+    }
+    assertThat(rows).isEqualTo(5);
+
+    MutableSpan request = testSpanHandler.takeRemoteSpan(CLIENT);
+    MutableSpan page1 = testSpanHandler.takeRemoteSpan(CLIENT);
+    MutableSpan page2 = testSpanHandler.takeRemoteSpan(CLIENT);
+    for (MutableSpan page : asList(page1, page2)) {
+      assertThat(page.name()).isEqualTo("fetch-page");
+      assertThat(page.parentId()).isEqualTo(request.id());
+      assertThat(page.remoteIp()).isEqualTo("127.0.0.1");
+    }
+    assertThat(page1.tags()).containsEntry("cassandra.page.size", "2");
+    assertThat(page2.tags()).containsEntry("cassandra.page.size", "1");
+  }
+
+  @Test public void pageTracing_prefetchExcludesRemainingRows() throws Exception {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).pageTracingEnabled(true));
+    PreparedStatement insert = prepareUsersInsert();
+    Session unwrapped = ((TracingSession) session).delegate;
+    for (int i = 0; i < 5; i++) unwrapped.execute(insert.bind(i, "user" + i));
+
+    ResultSet result =
+        session.execute(new SimpleStatement("SELECT * FROM brave.users").setFetchSize(2));
+    result.one(); // one row of the first page remains
+    result.fetchMoreResults().get();
+    assertThat(result.getAvailableWithoutFetching()).isEqualTo(3);
+
+    testSpanHandler.takeRemoteSpan(CLIENT); // the request
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsEntry("cassandra.page.size", "2");
+    result.all(); // fetches the last page, traced as well
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsEntry("cassandra.page.size", "1");
+  }
+
+  @Test public void pageTracingDisabledByDefault() {
+    PreparedStatement insert = prepareUsersInsert();
+    Session unwrapped = ((TracingSession) session).delegate;
+    for (int i = 0; i < 5; i++) unwrapped.execute(insert.bind(i, "user" + i));
+
+    assertThat(session.execute(new SimpleStatement("SELECT * FROM brave.users").setFetchSize(2))
+        .all()).hasSize(5);
+
+    testSpanHandler.takeRemoteSpan(CLIENT); // only the request
+  }
+
+  @Test public void attemptTracingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).attemptTracingEnabled(true));
+
+    invokeBoundStatement();
+
+    // the driver may report the winning attempt after completing the request
+    MutableSpan attempt = testSpanHandler.takeRemoteSpan(CLIENT);
+    MutableSpan request = testSpanHandler.takeRemoteSpan(CLIENT);
+    if (!"attempt".equals(attempt.name())) {
+      MutableSpan swap = attempt;
+      attempt = request;
+      request = swap;
+    }
+    assertThat(attempt.name()).isEqualTo("attempt");
+    assertThat(attempt.parentId()).isEqualTo(request.id());
+    assertThat(attempt.remotePort()).isEqualTo(cassandra.contactPoint().getPort());
+    assertThat(attempt.tags()).containsEntry("cassandra.attempt.outcome", "success");
+    assertThat(request.tags())
+        .containsEntry("cassandra.attempts", "1")
+        .containsEntry("cassandra.attempt.winner", "0");
+  }
+
+  @Test public void prepareTracingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).prepareTracingEnabled(true));
+
+    MutableSpan prepare = testSpanHandler.takeRemoteSpan(CLIENT);
+    assertThat(prepare.name()).isEqualTo("prepare");
+    assertThat(prepare.tags()).containsOnly(
+        entry("cassandra.keyspace", "system"),
+        entry("cassandra.query", prepared.getQueryString()),
+        entry("cassandra.table", "schema_keyspaces"));
+    assertThat(((TracingSession) session).rePrepares().count()).isZero();
+  }
+
+  @Test public void prepareTracingDisabledByDefault() {
+    session.prepare("SELECT * from system.schema_keyspaces");
+
+    assertThat(((TracingSession) session).rePrepares()).isNull();
+    // test rule ensures no span was reported
+  }
+
+  // the test server can't be stopped mid-request, so this drives the monitor directly
+  @Test public void hostEventTracingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).hostEventTracingEnabled(true));
+    HostMonitor monitor = ((TracingSession) session).hostMonitor;
+    Host host = cluster.getMetadata().getAllHosts().iterator().next();
+    String address = HostMonitor.address(host);
+
+    brave.Span span = tracing.tracer().nextSpan().name("request").start();
+    long since = monitor.sequence();
+    monitor.onDown(host);
+    monitor.onDown(host); // already down, so ignored
+    monitor.update(host, prepared.bind(), new BusyPoolException(host.getEndPoint(), 256), 0L);
+    monitor.update(host, prepared.bind(), new BusyPoolException(host.getEndPoint(), 256), 0L);
+    monitor.annotateSince(since, span);
+    span.finish();
+
+    MutableSpan down = testSpanHandler.takeLocalSpan();
+    assertThat(down.name()).isEqualTo("host-down");
+    assertThat(down.tags())
+        .containsEntry("cassandra.host", address)
+        .containsEntry("cassandra.datacenter", host.getDatacenter());
+    MutableSpan request = testSpanHandler.takeLocalSpan();
+    assertThat(request.annotations())
+        .extracting(Map.Entry::getValue)
+        .containsExactly("host-down " + address, "pool-busy " + address); // busy at most once
+    assertThat(request.annotations()) // in the span's clock
+        .extracting(Map.Entry::getKey)
+        .allSatisfy(timestamp -> assertThat(timestamp)
+            .isBetween(request.startTimestamp(), request.finishTimestamp()));
+  }
+
+  @Test public void hostEventTracing_annotatesNothingWithoutEvents() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).hostEventTracingEnabled(true));
+
+    invokeBoundStatement();
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).annotations()).isEmpty();
+  }
+
+  @Test public void hostLoadTaggingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).hostLoadTaggingEnabled(true));
+    ((TracingSession) session).hostLoads.refresh(); // rather than wait for the schedule
+
+    invokeBoundStatement();
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsKeys("cassandra.in_flight", "cassandra.pool.utilization");
+  }
+
+  @Test public void replicaTrackingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).replicaTrackingEnabled(true));
+    PreparedStatement insert = prepareUsersInsert();
+
+    session.execute(insert.bind(1, "bob"));
+
+    // a single node is a replica of every partition
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsEntry("cassandra.replica", "true");
+    assertThat(((TracingSession) session).replicaHits().misses()).isZero();
+  }
+
+  @Test public void replicaTracking_noRoutingKey() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).replicaTrackingEnabled(true));
+
+    invokeBoundStatement();
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .doesNotContainKey("cassandra.replica");
+  }
+
+  @Test public void latencyScoringPolicy_scoresQueriedHost() {
+    LatencyScoringPolicy policy = LatencyScoringPolicy.create(new RoundRobinPolicy());
+    session.close();
+    cluster.close();
+    cluster = Cluster.builder().addContactPointsWithPorts(singleton(cassandra.contactPoint()))
+        .withLoadBalancingPolicy(policy).build();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).latencyScoringPolicy(policy));
+
+    invokeBoundStatement();
+
+    testSpanHandler.takeRemoteSpan(CLIENT); // finished after the latency is recorded
+    Host host = cluster.getMetadata().getAllHosts().iterator().next();
+    assertThat(policy.scores.counts.get(policy.indexes.get(host))).isEqualTo(1L);
+  }
+
+  @Test public void lwtTracingEnabled() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).lwtTracingEnabled(true));
+    prepareUsersInsert(); // creates the table
+    PreparedStatement insert =
+        session.prepare("INSERT INTO brave.users (id, name) VALUES (?, ?) IF NOT EXISTS");
+
+    session.execute(insert.bind(100, "alice"));
+    ResultSet notApplied = session.execute(insert.bind(100, "bob"));
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsEntry("cassandra.lwt.applied", "true")
+        .containsEntry("cassandra.serial_consistency_level", "SERIAL");
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsEntry("cassandra.lwt.applied", "false");
+    assertThat(notApplied.one().getString("name")).isEqualTo("alice"); // row not consumed
+
+    LwtContentionCounter lwtContention = ((TracingSession) session).lwtContention();
+    assertThat(lwtContention.count("brave.users")).isEqualTo(2L);
+    assertThat(lwtContention.notApplied("brave.users")).isEqualTo(1L);
+    assertThat(lwtContention.contentionRate("brave.users")).isZero();
+  }
+
+  @Test public void lwtContention_builtStatements() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).lwtTracingEnabled(true));
+    prepareUsersInsert(); // creates the table
+
+    session.execute(insertInto("brave", "users").value("id", 101).value("name", "alice")
+        .ifNotExists());
+    session.execute(insertInto("brave", "users").value("id", 101).value("name", "bob")
+        .ifNotExists());
+    session.execute(insertInto("brave", "users").value("id", 102).value("name", "bob"));
+
+    testSpanHandler.takeRemoteSpan(CLIENT);
+    testSpanHandler.takeRemoteSpan(CLIENT);
+    testSpanHandler.takeRemoteSpan(CLIENT);
+
+    LwtContentionCounter lwtContention = ((TracingSession) session).lwtContention();
+    assertThat(lwtContention.tables()).containsExactly("brave.users");
+    assertThat(lwtContention.count("brave.users")).isEqualTo(2L); // not the unconditional insert
+    assertThat(lwtContention.notApplied("brave.users")).isEqualTo(1L);
+  }
+
+  // system_traces isn't written here, as CustomPayloadCaptor replaces the server's tracing
+  @Test public void queryTraceImporter_ignoresUntracedStatements() {
+    QueryTraceImporter importer = QueryTraceImporter.create(100, TimeUnit.MILLISECONDS, 10);
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).queryTraceImporter(importer));
+    try {
+      invokeBoundStatement();
+
+      testSpanHandler.takeRemoteSpan(CLIENT); // only the request
+      assertThat(importer.pending()).isZero();
+    } finally {
+      importer.close();
+    }
+  }
+
+  @Test public void mappingParser() {
+    prepareUsersInsert();
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).parser(
+        MappingParser.newBuilder()
+            .addEntity(MappingParserTest.User.class)
+            .addAccessor(MappingParserTest.UserAccessor.class)
+            .build()));
+    MappingManager manager = new MappingManager(session);
+    Mapper<MappingParserTest.User> mapper = manager.mapper(MappingParserTest.User.class);
+    MappingParserTest.UserAccessor accessor =
+        manager.createAccessor(MappingParserTest.UserAccessor.class);
+
+    PreparedStatement handWritten =
+        session.prepare("SELECT * FROM brave.users WHERE id = ?"); // same table as User
+
+    mapper.get(1);
+    accessor.findByName("bob");
+    session.execute(handWritten.bind(1));
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).name()).isEqualTo("User.get");
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).name())
+        .isEqualTo("UserAccessor.findByName");
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).name()).isEqualTo("bound-statement");
+  }
+
+  @Test public void ruleSampler_cachesRulePerPreparedStatement() {
+    CassandraClientRuleSampler sampler = CassandraClientRuleSampler.newBuilder()
+        .putRule(StatementMatchers.tableEquals("schema_keyspaces"), Sampler.NEVER_SAMPLE)
+        .build();
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing).sampler(sampler));
+
+    invokeBoundStatement();
+    invokeBoundStatement();
+
+    assertThat(sampler.preparedRules.asMap()).containsOnlyKeys(prepared);
+    // test rule ensures no span was reported
+  }
+
+  @Test public void executeStage() {
+    ResultSet result = ((TracingSession) session).executeStage(prepared.bind())
+        .toCompletableFuture().join();
+
+    assertThat(result.getExecutionInfo().getQueriedHost()).isNotNull();
+    testSpanHandler.takeRemoteSpan(CLIENT);
+  }
+
+  @Test public void executeStage_dependentsRunInInvocationContext() {
+    TraceContext parent = newTraceContext(SamplingFlags.SAMPLED);
+    AtomicReference<TraceContext> dependent = new AtomicReference<>();
+    CompletableFuture<?> done;
+    try (Scope scope = currentTraceContext.newScope(parent)) {
+      CompletableFuture<ResultSet> stage =
+          ((TracingSession) session).executeStage(prepared.bind()).toCompletableFuture();
+      done = stage.thenAccept(r -> dependent.set(currentTraceContext.get()));
+    }
+    done.join();
+
+    // whether it ran on the I/O thread or this one, the dependent saw the invocation context
+    assertThat(dependent.get()).isEqualTo(parent);
+    assertChildOf(testSpanHandler.takeRemoteSpan(CLIENT), parent);
+  }
+
+  @Test public void executeStage_failure() {
+    cluster.close();
+
+    CompletableFuture<ResultSet> stage =
+        ((TracingSession) session).executeStage(prepared.bind()).toCompletableFuture();
+
+    assertThat(stage).isCompletedExceptionally();
+    testSpanHandler.takeRemoteSpanWithErrorMessage(CLIENT,
+        "Could not send request, session is closed");
+  }
+
+  @Test public void completionExecutor() throws Exception {
+    BlockingQueue<Runnable> submitted = new LinkedBlockingQueue<>();
+    session.close();
+    session = newSession(
+        CassandraClientTracing.newBuilder(tracing).completionExecutor(submitted::add));
+
+    invokeBoundStatement();
+
+    // the span isn't finished until the executor runs what the I/O thread submitted
+    submitted.poll(10, TimeUnit.SECONDS).run();
+    testSpanHandler.takeRemoteSpan(CLIENT);
+  }
+
   @Test public void reportsSpanOnTransportException() {
     cluster.close();
 
@@ -178,6 +683,86 @@ public class ITTracingSession extends ITRemote {
     // test rule ensures no span was sampled
   }
 
+  @Test public void tailSampler_reportsSlowUnsampled() {
+    cassandraTracing = cassandraTracing.toBuilder()
+        .sampler(CassandraClientSampler.NEVER_SAMPLE)
+        .tailSampler(CassandraClientTailSampler.slowerThan(0, TimeUnit.NANOSECONDS))
+        .build();
+    session = TracingSession.create(cassandraTracing, ((TracingSession) session).delegate);
+
+    invokeBoundStatement();
+
+    assertThat(extractB3Flags().sampled()).isFalse();
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    assertThat(span.parentId()).isNull();
+    assertThat(span.tags()).containsKey("cassandra.query");
+    assertThat(span.remotePort()).isEqualTo(cassandra.contactPoint().getPort());
+  }
+
+  @Test public void tailSampler_discardsFastUnsampled() {
+    cassandraTracing = cassandraTracing.toBuilder()
+        .sampler(CassandraClientSampler.NEVER_SAMPLE)
+        .tailSampler(CassandraClientTailSampler.slowerThan(1, TimeUnit.HOURS))
+        .build();
+    session = TracingSession.create(cassandraTracing, ((TracingSession) session).delegate);
+
+    invokeBoundStatement();
+
+    // test rule ensures no span was reported
+  }
+
+  @Test public void tailSampler_reportsFailedUnsampled() {
+    cassandraTracing = cassandraTracing.toBuilder()
+        .sampler(CassandraClientSampler.NEVER_SAMPLE)
+        .tailSampler(CassandraClientTailSampler.slowerThan(1, TimeUnit.HOURS))
+        .build();
+    session = TracingSession.create(cassandraTracing, ((TracingSession) session).delegate);
+    cluster.close();
+
+    try {
+      invokeBoundStatement();
+      failBecauseExceptionWasNotThrown(DriverInternalError.class);
+    } catch (DriverInternalError e) {
+      testSpanHandler.takeRemoteSpanWithErrorMessage(CLIENT,
+          "Could not send request, session is closed");
+    }
+  }
+
+  @Test public void tailSampler_reportsFailedInUnsampledParent() {
+    cassandraTracing = cassandraTracing.toBuilder()
+        .tailSampler(CassandraClientTailSampler.slowerThan(1, TimeUnit.HOURS))
+        .build();
+    session = TracingSession.create(cassandraTracing, ((TracingSession) session).delegate);
+    cluster.close();
+
+    try (Scope unsampled = currentTraceContext.newScope(newTraceContext(NOT_SAMPLED))) {
+      invokeBoundStatement();
+      failBecauseExceptionWasNotThrown(DriverInternalError.class);
+    } catch (DriverInternalError e) {
+      MutableSpan span = testSpanHandler.takeRemoteSpanWithErrorMessage(CLIENT,
+          "Could not send request, session is closed");
+      assertThat(span.parentId()).isNull(); // a new trace, not a child of the unsampled one
+    }
+  }
+
+  @Test public void queryLatencies_recordsUnsampled() {
+    QueryLatencies latencies = QueryLatencies.create();
+    cassandraTracing = cassandraTracing.toBuilder()
+        .sampler(CassandraClientSampler.NEVER_SAMPLE)
+        .queryLatencies(latencies)
+        .build();
+    session = TracingSession.create(cassandraTracing, ((TracingSession) session).delegate);
+
+    invokeBoundStatement();
+    invokeBoundStatement();
+
+    assertThat(latencies.snapshot()).hasSize(1).first().satisfies(snapshot -> {
+      assertThat(snapshot.query()).isEqualTo(prepared.getQueryString());
+      assertThat(snapshot.host().getPort()).isEqualTo(cassandra.contactPoint().getPort());
+      assertThat(snapshot.count()).isEqualTo(2L);
+    });
+  }
+
   @Test public void supportsCustomization() {
     cassandraTracing = cassandraTracing.toBuilder().parser(new CassandraClientParser() {
       @Override public String spanName(Statement statement) {
@@ -205,12 +790,37 @@ public class ITTracingSession extends ITRemote {
     assertThat(span.remoteServiceName()).isEqualTo("remote-cluster");
   }
 
+  @Test public void executionInfoParser() {
+    cassandraTracing = cassandraTracing.toBuilder().parser(new ExecutionInfoParser()).build();
+    session = TracingSession.create(cassandraTracing, ((TracingSession) session).delegate);
+
+    invokeBoundStatement();
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).tags())
+        .containsEntry("cassandra.has_more_pages", "false")
+        .containsEntry("cassandra.datacenter", "datacenter1")
+        .containsKeys("cassandra.rows_available", "cassandra.rack")
+        .doesNotContainKeys("cassandra.tried_hosts", "cassandra.speculative_executions");
+  }
+
+  PreparedStatement prepareUsersInsert() {
+    Session unwrapped = ((TracingSession) session).delegate;
+    unwrapped.execute("CREATE KEYSPACE IF NOT EXISTS brave WITH replication = "
+        + "{'class': 'SimpleStrategy', 'replication_factor': 1}");
+    unwrapped.execute("CREATE TABLE IF NOT EXISTS brave.users (id int PRIMARY KEY, name text)");
+    return session.prepare("INSERT INTO brave.users (id, name) VALUES (?, ?)");
+  }
+
   void invokeBoundStatement() {
     session.execute(prepared.bind());
   }
 
   static TraceContext extractB3Header() {
+    return extractB3Flags().context();
+  }
+
+  static TraceContextOrSamplingFlags extractB3Flags() {
     ByteBuffer b3 = CustomPayloadCaptor.ref.get().get("b3");
-    return B3SingleFormat.parseB3SingleFormat(UTF_8.decode(b3)).context();
+    return B3SingleFormat.parseB3SingleFormat(UTF_8.decode(b3));
   }
 }
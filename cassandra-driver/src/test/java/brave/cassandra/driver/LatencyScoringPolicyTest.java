@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static brave.cassandra.driver.LatencyScoringPolicy.MIN_MEASUREMENTS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyScoringPolicyTest {
+  static final long SCALE = TimeUnit.MILLISECONDS.toNanos(100);
+  static final long RETRY_PERIOD = TimeUnit.SECONDS.toNanos(10);
+
+  LatencyScoringPolicy.Scores scores = new LatencyScoringPolicy.Scores();
+  Set<String> replicas = new LinkedHashSet<>(Arrays.asList("a", "b", "c"));
+  Map<String, Double> scoreMap = new LinkedHashMap<>();
+
+  @Test public void score_needsMinMeasurements() {
+    for (int i = 0; i < MIN_MEASUREMENTS - 1; i++) scores.update(0, 1000L, i * SCALE, SCALE);
+    assertThat(scores.score(0, MIN_MEASUREMENTS * SCALE, RETRY_PERIOD)).isNaN();
+
+    scores.update(0, 1000L, MIN_MEASUREMENTS * SCALE, SCALE);
+    assertThat(scores.score(0, MIN_MEASUREMENTS * SCALE, RETRY_PERIOD)).isEqualTo(1000.0);
+  }
+
+  @Test public void score_decaysByElapsedTime() {
+    scores.update(0, 1000L, 0L, SCALE);
+    scores.update(0, 2000L, SCALE, SCALE); // one scale later weighs 1 - 1/e
+
+    assertThat(Double.longBitsToDouble(scores.averages.get(0)))
+        .isCloseTo(1000.0 / Math.E + 2000.0 * (1.0 - 1.0 / Math.E), within(0.001));
+  }
+
+  @Test public void score_concurrentMeasurementDoesntCount() {
+    scores.update(0, 1000L, 0L, SCALE);
+    scores.update(0, 2000L, 0L, SCALE);
+
+    assertThat(Double.longBitsToDouble(scores.averages.get(0))).isEqualTo(1000.0);
+  }
+
+  @Test public void score_staleAfterRetryPeriod() {
+    for (int i = 0; i < MIN_MEASUREMENTS; i++) scores.update(0, 1000L, 0L, SCALE);
+
+    assertThat(scores.score(0, RETRY_PERIOD, RETRY_PERIOD)).isEqualTo(1000.0);
+    assertThat(scores.score(0, RETRY_PERIOD + 1, RETRY_PERIOD)).isNaN();
+  }
+
+  @Test public void reset_restartsAverage() {
+    for (int i = 0; i < MIN_MEASUREMENTS; i++) scores.update(0, 1000L, 0L, SCALE);
+
+    scores.reset(0);
+    assertThat(scores.score(0, 0L, RETRY_PERIOD)).isNaN();
+
+    scores.update(0, 5000L, SCALE, SCALE);
+    assertThat(Double.longBitsToDouble(scores.averages.get(0))).isEqualTo(5000.0);
+  }
+
+  @Test public void ensureCapacity_keepsScores() {
+    scores.update(15, 1000L, 0L, SCALE);
+
+    scores.ensureCapacity(17);
+
+    assertThat(scores.counts.length()).isEqualTo(32);
+    assertThat(scores.counts.get(15)).isEqualTo(1L);
+    assertThat(Double.longBitsToDouble(scores.averages.get(15))).isEqualTo(1000.0);
+  }
+
+  @Test public void deferSlowReplicas_movesSlowReplicaBeforeNextNonReplica() {
+    scoreMap.put("a", 10.0);
+    scoreMap.put("b", 1.0);
+    scoreMap.put("c", 1.0);
+
+    assertThat(queryPlan("a", "b", "c", "x", "y")).containsExactly("b", "c", "a", "x", "y");
+  }
+
+  @Test public void deferSlowReplicas_slowReplicaLastWhenOnlyReplicas() {
+    scoreMap.put("a", 10.0);
+    scoreMap.put("b", 1.0);
+    scoreMap.put("c", 1.0);
+
+    assertThat(queryPlan("a", "b", "c")).containsExactly("b", "c", "a");
+  }
+
+  @Test public void deferSlowReplicas_unscoredReplicaIsntMoved() {
+    scoreMap.put("b", 1.0);
+    scoreMap.put("c", 10.0); // "a" is new or its score is stale
+
+    assertThat(queryPlan("c", "a", "b", "x")).containsExactly("a", "b", "c", "x");
+  }
+
+  @Test public void deferSlowReplicas_withinThresholdKeepsPlan() {
+    scoreMap.put("a", 2.0);
+    scoreMap.put("b", 1.0);
+    scoreMap.put("c", 1.5);
+
+    Iterator<String> plan = Arrays.asList("a", "b", "c", "x").iterator();
+    assertThat(LatencyScoringPolicy.deferSlowReplicas(plan, replicas, this::score, 2.0))
+        .isSameAs(plan);
+  }
+
+  @Test public void deferSlowReplicas_noScoresKeepsPlan() {
+    Iterator<String> plan = Arrays.asList("a", "b", "c", "x").iterator();
+    assertThat(LatencyScoringPolicy.deferSlowReplicas(plan, replicas, this::score, 2.0))
+        .isSameAs(plan);
+  }
+
+  @Test public void builder_validatesArguments() {
+    LatencyScoringPolicy.Builder builder = LatencyScoringPolicy.newBuilder(new RoundRobinPolicy());
+
+    assertThatThrownBy(() -> builder.exclusionThreshold(0.5))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> builder.scale(0, TimeUnit.MILLISECONDS))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> builder.retryPeriod(0, TimeUnit.SECONDS))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  double score(String host) {
+    return scoreMap.getOrDefault(host, LatencyScoringPolicy.UNSCORED);
+  }
+
+  List<String> queryPlan(String... hosts) {
+    Iterator<String> plan = LatencyScoringPolicy.deferSlowReplicas(
+        Arrays.asList(hosts).iterator(), replicas, this::score, 2.0);
+    List<String> result = new ArrayList<>();
+    plan.forEachRemaining(result::add);
+    return result;
+  }
+}
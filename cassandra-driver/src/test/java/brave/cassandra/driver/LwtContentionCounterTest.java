@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import org.junit.Test;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LwtContentionCounterTest {
+  static final WriteTimeoutException CAS_TIMEOUT =
+      new WriteTimeoutException(ConsistencyLevel.SERIAL, WriteType.CAS, 0, 1);
+
+  LwtContentionCounter counter = new LwtContentionCounter();
+
+  @Test public void contentionRate() {
+    LwtContentionCounter.TableCounts counts = new LwtContentionCounter.TableCounts();
+    counts.count.set(8L);
+    counts.casTimeouts.set(2L);
+    counter.tables.put("users", counts);
+
+    assertThat(counter.tables()).containsExactly("users");
+    assertThat(counter.contentionRate("users")).isEqualTo(0.25);
+  }
+
+  @Test public void unknownTable() {
+    assertThat(counter.count("users")).isZero();
+    assertThat(counter.notApplied("users")).isZero();
+    assertThat(counter.casTimeouts("users")).isZero();
+    assertThat(counter.contentionRate("users")).isZero();
+  }
+
+  @Test public void isCasTimeout_otherErrors() {
+    assertThat(LwtContentionCounter.isCasTimeout(null)).isFalse();
+    assertThat(LwtContentionCounter.isCasTimeout(new IllegalStateException())).isFalse();
+  }
+
+  @Test public void record_casTimeout_builtStatement() {
+    Statement insert = insertInto("brave", "users").value("id", 1).ifNotExists();
+
+    counter.record(insert, null, CAS_TIMEOUT);
+    counter.record(insert, null, CAS_TIMEOUT);
+
+    assertThat(counter.tables()).containsExactly("brave.users");
+    assertThat(counter.count("brave.users")).isEqualTo(2L);
+    assertThat(counter.casTimeouts("brave.users")).isEqualTo(2L);
+    assertThat(counter.contentionRate("brave.users")).isEqualTo(1.0);
+  }
+
+  @Test public void record_casTimeout_simpleStatement() {
+    counter.record(new SimpleStatement("INSERT INTO users (id) VALUES (1) IF NOT EXISTS"), null,
+        CAS_TIMEOUT);
+    counter.record(new SimpleStatement("INSERT INTO users (id) VALUES (1) IF NOT EXISTS")
+        .setKeyspace("brave"), null, CAS_TIMEOUT);
+
+    assertThat(counter.tables()).containsExactlyInAnyOrder("users", "brave.users");
+  }
+
+  @Test public void record_ignoresOtherErrors() {
+    counter.record(new SimpleStatement("INSERT INTO brave.users (id) VALUES (1)"), null,
+        new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1));
+
+    assertThat(counter.tables()).isEmpty();
+  }
+
+  @Test public void record_ignoresBatches() {
+    counter.record(new BatchStatement(), null, CAS_TIMEOUT);
+
+    assertThat(counter.tables()).isEmpty();
+  }
+
+  @Test public void table_builtStatementCachedByQuery() {
+    RegularStatement insert = insertInto("brave", "users").value("id", 1).ifNotExists();
+
+    assertThat(LwtContentionCounter.table(insert)).isEqualTo("brave.users");
+    assertThat(QueryMetadata.QUERY_CACHE.asMap()).containsKey(insert.getQueryString());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.mapping.annotations.Accessor;
+import com.datastax.driver.mapping.annotations.ClusteringColumn;
+import com.datastax.driver.mapping.annotations.Column;
+import com.datastax.driver.mapping.annotations.PartitionKey;
+import com.datastax.driver.mapping.annotations.Query;
+import com.datastax.driver.mapping.annotations.Table;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappingParserTest {
+  @Table(keyspace = "brave", name = "users")
+  public static class User {
+    @PartitionKey int id;
+    String name;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+
+  @Table(name = "Events", caseSensitiveTable = true)
+  public static class Event {
+    @PartitionKey @Column(name = "Day", caseSensitive = true) String day;
+    @ClusteringColumn int sequence;
+  }
+
+  @Table(name = "unkeyed")
+  public static class Unkeyed {
+  }
+
+  @Accessor
+  public interface UserAccessor {
+    @Query("SELECT * FROM brave.users WHERE name = ? ALLOW FILTERING")
+    ResultSet findByName(String name);
+  }
+
+  MappingParser parser = MappingParser.newBuilder()
+      .addEntity(User.class)
+      .addEntity(Event.class)
+      .addAccessor(UserAccessor.class)
+      .build();
+
+  @Test public void mappedName_entity() {
+    assertThat(mappedName("SELECT id,name FROM brave.users WHERE id=?;"))
+        .isEqualTo("User.get");
+    assertThat(mappedName("INSERT INTO brave.users (id,name) VALUES (?,?);"))
+        .isEqualTo("User.save");
+    assertThat(mappedName("DELETE FROM brave.users WHERE id=?;"))
+        .isEqualTo("User.delete");
+  }
+
+  @Test public void mappedName_entityWithOptions() {
+    assertThat(mappedName("INSERT INTO brave.users (id,name) VALUES (?,?) IF NOT EXISTS;"))
+        .isEqualTo("User.save");
+    assertThat(mappedName("INSERT INTO brave.users (id,name) VALUES (?,?) USING TTL ?;"))
+        .isEqualTo("User.save");
+    assertThat(mappedName("DELETE FROM brave.users USING TIMESTAMP ? WHERE id=? IF EXISTS;"))
+        .isEqualTo("User.delete");
+  }
+
+  @Test public void mappedName_entityWithoutKeyspace() {
+    String query = "SELECT \"Day\",sequence FROM brave.\"Events\" WHERE \"Day\"=? AND sequence=?;";
+    assertThat(parser.mappedName(query, "brave", "Events", "SELECT"))
+        .isEqualTo("Event.get");
+    assertThat(parser.mappedName(query, "brave", "events", "SELECT"))
+        .isNull(); // case-sensitive table
+  }
+
+  @Test public void mappedName_handWrittenQueryOnEntityTable() {
+    assertThat(mappedName("INSERT INTO brave.users (id, name) VALUES (?, ?)")).isNull();
+    assertThat(mappedName("SELECT * FROM brave.users WHERE id = ?")).isNull();
+    assertThat(mappedName("SELECT id,name FROM brave.users WHERE name=?;")).isNull();
+    assertThat(mappedName("DELETE FROM brave.users WHERE id=1;")).isNull();
+    assertThat(mappedName("INSERT INTO brave.users (name) VALUES (?);")).isNull();
+  }
+
+  @Test public void mappedName_updateIsUnnamed() {
+    assertThat(mappedName("UPDATE brave.users SET name=? WHERE id=?;")).isNull();
+  }
+
+  @Test public void mappedName_accessorMethod() {
+    assertThat(mappedName("SELECT * FROM brave.users WHERE name = ? ALLOW FILTERING"))
+        .isEqualTo("UserAccessor.findByName");
+  }
+
+  @Test public void mappedName_unmapped() {
+    assertThat(mappedName("SELECT * FROM brave.emails WHERE id = ?")).isNull();
+    assertThat(mappedName("SELECT * FROM other.users WHERE id = ?")).isNull();
+  }
+
+  @Test public void addEntity_requiresTable() {
+    assertThatThrownBy(() -> MappingParser.newBuilder().addEntity(String.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void addEntity_requiresPrimaryKey() {
+    assertThatThrownBy(() -> MappingParser.newBuilder().addEntity(Unkeyed.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void addAccessor_requiresAccessor() {
+    assertThatThrownBy(() -> MappingParser.newBuilder().addAccessor(Runnable.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  String mappedName(String query) {
+    QueryMetadata metadata = QueryMetadata.parse(query);
+    return parser.mappedName(query, metadata.keyspace, metadata.table, metadata.operation);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.SimpleStatement;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProvisionalSpanTest {
+  ProvisionalSpan.Pool pool = new ProvisionalSpan.Pool(4);
+
+  @Test public void pool_recyclesReleased() {
+    ProvisionalSpan provisional = pool.acquire();
+    pool.release(provisional);
+
+    assertThat(pool.acquire()).isSameAs(provisional);
+  }
+
+  @Test public void pool_recyclesAcrossThreads() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      ProvisionalSpan provisional = pool.acquire();
+      Thread releaser = new Thread(() -> pool.release(provisional)); // like an I/O thread
+      releaser.start();
+      releaser.join();
+
+      assertThat(pool.acquire()).isSameAs(provisional);
+    }
+  }
+
+  @Test public void pool_recyclesConcurrentRequests() throws Exception {
+    ProvisionalSpan first = pool.acquire(), second = pool.acquire();
+    Thread releaser = new Thread(() -> {
+      pool.release(first);
+      pool.release(second);
+    });
+    releaser.start();
+    releaser.join();
+
+    assertThat(pool.acquire()).isSameAs(second);
+    assertThat(pool.acquire()).isSameAs(first);
+  }
+
+  @Test public void pool_allocatesWhenEmpty() {
+    ProvisionalSpan provisional = pool.acquire();
+
+    assertThat(pool.acquire()).isNotSameAs(provisional);
+  }
+
+  @Test public void pool_dropsWhenFull() {
+    ProvisionalSpan[] released = new ProvisionalSpan[ProvisionalSpan.Pool.PROBES + 1];
+    for (int i = 0; i < released.length; i++) released[i] = new ProvisionalSpan(pool);
+    for (ProvisionalSpan provisional : released) pool.release(provisional);
+
+    assertThat(pool.slots.length()).isEqualTo(4);
+    for (int i = 0; i < 4; i++) assertThat(pool.slots.get(i)).isNotNull();
+  }
+
+  @Test public void slowerThan() {
+    CassandraClientTailSampler sampler =
+        CassandraClientTailSampler.slowerThan(10, TimeUnit.MILLISECONDS);
+
+    assertThat(sampler.thresholdNanos(new SimpleStatement("SELECT * FROM users")))
+        .isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+  }
+
+  @Test public void slowerThan_negative() {
+    assertThatThrownBy(() -> CassandraClientTailSampler.slowerThan(-1, TimeUnit.MILLISECONDS))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.SimpleStatement;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
+
+public class QueryLatenciesTest {
+  SimpleStatement users = new SimpleStatement("SELECT * FROM users"),
+      emails = new SimpleStatement("SELECT * FROM emails");
+  QueryLatencies latencies = QueryLatencies.create();
+
+  @Test public void histogram_bucketsContainTheirValues() {
+    for (long micros : new long[] {0, 1, 63, 64, 65, 127, 128, 1000, 123456, (1L << 32) - 1}) {
+      int index = LatencyHistogram.index(micros);
+      assertThat(LatencyHistogram.highestValue(index)).isGreaterThanOrEqualTo(micros);
+      if (index > 0) assertThat(LatencyHistogram.highestValue(index - 1)).isLessThan(micros);
+    }
+  }
+
+  @Test public void histogram_clampsToLastBucket() {
+    assertThat(LatencyHistogram.index(Long.MAX_VALUE))
+        .isEqualTo(LatencyHistogram.BUCKET_COUNT - 1);
+  }
+
+  @Test public void percentiles() {
+    for (int i = 1; i <= 1000; i++) latencies.record(users, null, MILLISECONDS.toNanos(i));
+
+    QueryLatencies.Snapshot snapshot = latencies.snapshot().get(0);
+    assertThat(snapshot.query()).isEqualTo(users.getQueryString());
+    assertThat(snapshot.host()).isNull();
+    assertThat(snapshot.count()).isEqualTo(1000);
+    assertThat(snapshot.valueAtPercentile(50, MICROSECONDS)).isCloseTo(500_000L, within(16_000L));
+    assertThat(snapshot.valueAtPercentile(99.9, MICROSECONDS))
+        .isCloseTo(999_000L, within(32_000L));
+    assertThat(snapshot.max(MILLISECONDS)).isGreaterThanOrEqualTo(1000L);
+  }
+
+  @Test public void keyedByQueryShape() {
+    latencies.record(users, null, 1L);
+    latencies.record(new SimpleStatement(users.getQueryString()), null, 1L);
+    latencies.record(emails, null, 1L);
+    latencies.record(new BatchStatement(), null, 1L);
+
+    assertThat(latencies.snapshot())
+        .extracting(QueryLatencies.Snapshot::query, QueryLatencies.Snapshot::count)
+        .containsExactlyInAnyOrder(
+            tuple(users.getQueryString(), 2L),
+            tuple(emails.getQueryString(), 1L),
+            tuple("BatchStatement", 1L));
+  }
+
+  @Test public void keyedByFingerprint() {
+    latencies.record(new SimpleStatement("SELECT * FROM users WHERE id = 1"), null, 1L);
+    latencies.record(new SimpleStatement("SELECT * FROM users WHERE id = 2"), null, 1L);
+
+    assertThat(latencies.snapshot())
+        .extracting(QueryLatencies.Snapshot::query, QueryLatencies.Snapshot::count)
+        .containsExactly(tuple("SELECT * FROM users WHERE id = ?", 2L));
+  }
+
+  @Test public void snapshotAndReset() {
+    latencies.record(users, null, 1L);
+
+    assertThat(latencies.snapshotAndReset()).hasSize(1);
+    assertThat(latencies.snapshot()).isEmpty();
+    assertThat(latencies.histogramCount.get()).isEqualTo(1); // histograms are reused
+  }
+
+  @Test public void histogramsPastMaxShareOverflow() {
+    latencies = QueryLatencies.create(1);
+    latencies.record(users, null, 1L);
+    latencies.record(emails, null, TimeUnit.SECONDS.toNanos(1));
+
+    assertThat(latencies.snapshot())
+        .extracting(QueryLatencies.Snapshot::query)
+        .containsExactlyInAnyOrder(users.getQueryString(), null);
+    assertThat(latencies.histograms).containsOnlyKeys(users.getQueryString());
+  }
+}
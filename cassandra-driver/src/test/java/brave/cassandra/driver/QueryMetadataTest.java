@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryMetadataTest {
+  @Test public void parse_select() {
+    QueryMetadata metadata = QueryMetadata.parse("SELECT * FROM users WHERE id = ?");
+
+    assertThat(metadata.operation).isEqualTo("SELECT");
+    assertThat(metadata.keyspace).isNull();
+    assertThat(metadata.table).isEqualTo("users");
+  }
+
+  @Test public void parse_qualifiedTable() {
+    QueryMetadata metadata = QueryMetadata.parse("select id from App.Users where id = ?");
+
+    assertThat(metadata.operation).isEqualTo("SELECT");
+    assertThat(metadata.keyspace).isEqualTo("app");
+    assertThat(metadata.table).isEqualTo("users");
+  }
+
+  @Test public void parse_quotedIdentifiers() {
+    QueryMetadata metadata = QueryMetadata.parse("SELECT \"from\" FROM \"App\".\"Users\"");
+
+    assertThat(metadata.keyspace).isEqualTo("App");
+    assertThat(metadata.table).isEqualTo("Users");
+  }
+
+  @Test public void parse_insert() {
+    assertThat(QueryMetadata.parse("INSERT INTO users (id) VALUES (?)"))
+        .extracting(m -> m.operation, m -> m.table)
+        .containsExactly("INSERT", "users");
+  }
+
+  @Test public void parse_update() {
+    assertThat(QueryMetadata.parse("  UPDATE users SET name = 'from' WHERE id = ?"))
+        .extracting(m -> m.operation, m -> m.table)
+        .containsExactly("UPDATE", "users");
+  }
+
+  @Test public void parse_delete_skipsComments() {
+    assertThat(QueryMetadata.parse("/* from x */ DELETE name -- from y\n FROM users WHERE id = ?"))
+        .extracting(m -> m.operation, m -> m.table)
+        .containsExactly("DELETE", "users");
+  }
+
+  @Test public void parse_batch() {
+    assertThat(QueryMetadata.parse("BEGIN BATCH INSERT INTO users (id) VALUES (?) APPLY BATCH"))
+        .extracting(m -> m.operation, m -> m.table)
+        .containsExactly("BATCH", null);
+  }
+
+  @Test public void parse_unknown() {
+    assertThat(QueryMetadata.parse("TRUNCATE users"))
+        .extracting(m -> m.operation, m -> m.table)
+        .containsExactly(null, null);
+  }
+
+  @Test public void fingerprint_replacesLiterals() {
+    assertThat(QueryMetadata.fingerprint(
+        "SELECT * FROM users WHERE name = 'it''s' AND age > -1.5e3 AND data = 0xcafe"))
+        .isEqualTo("SELECT * FROM users WHERE name = ? AND age > ? AND data = ?");
+  }
+
+  @Test public void fingerprint_replacesUuidsAndDollarStrings() {
+    assertThat(QueryMetadata.fingerprint(
+        "UPDATE users SET bio = $$it's$$ WHERE id = 5a3b1c2d-0000-4e5f-8a9b-0123456789ab"))
+        .isEqualTo("UPDATE users SET bio = ? WHERE id = ?");
+  }
+
+  @Test public void fingerprint_collapsesLists() {
+    assertThat(QueryMetadata.fingerprint("SELECT * FROM users WHERE id IN (1, 2,3)"))
+        .isEqualTo(QueryMetadata.fingerprint("SELECT * FROM users WHERE id IN (4)"))
+        .isEqualTo("SELECT * FROM users WHERE id IN (?)");
+  }
+
+  @Test public void fingerprint_keepsIdentifiers() {
+    assertThat(QueryMetadata.fingerprint("SELECT \"Col1\", v2 FROM ks.\"T\" WHERE a = b - 1"))
+        .isEqualTo("SELECT \"Col1\", v2 FROM ks.\"T\" WHERE a = b - ?");
+  }
+
+  @Test public void fingerprint_dropsCommentsAndWhitespace() {
+    assertThat(QueryMetadata.fingerprint("  /* hint */ SELECT *\n  FROM users -- trailing\n  "))
+        .isEqualTo("SELECT * FROM users");
+  }
+
+  @Test public void fingerprint_parsesAsQuery() {
+    QueryMetadata metadata =
+        QueryMetadata.parse(QueryMetadata.fingerprint("INSERT INTO app.users (id) VALUES (1)"));
+
+    assertThat(metadata.query).isEqualTo("INSERT INTO app.users (id) VALUES (?)");
+    assertThat(metadata.keyspace).isEqualTo("app");
+    assertThat(metadata.table).isEqualTo("users");
+  }
+
+  @Test public void of_builtStatementsCachedByQuery() {
+    RegularStatement built = QueryBuilder.select().from("app", "users")
+        .where(QueryBuilder.eq("id", 1));
+
+    QueryMetadata metadata = QueryMetadata.of(built);
+    assertThat(metadata.keyspace).isEqualTo("app");
+    assertThat(metadata.table).isEqualTo("users");
+    // a new instance of the same shape, as applications build one per request
+    assertThat(QueryMetadata.of(QueryBuilder.select().from("app", "users")
+        .where(QueryBuilder.eq("id", 1)))).isSameAs(metadata);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.SimpleStatement;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryRateLimitingSamplerTest {
+  SimpleStatement users = new SimpleStatement("SELECT * FROM users"),
+      emails = new SimpleStatement("SELECT * FROM emails"),
+      accounts = new SimpleStatement("SELECT * FROM accounts");
+
+  @Test public void limitsEachQuery() {
+    CassandraClientSampler sampler = CassandraClientSampler.rateLimitedPerQuery(1);
+
+    assertThat(sampler.trySample(users)).isTrue();
+    assertThat(sampler.trySample(users)).isFalse();
+    // a hot query doesn't use the budget of another
+    assertThat(sampler.trySample(emails)).isTrue();
+  }
+
+  @Test public void sameQueriesShareLimit() {
+    CassandraClientSampler sampler = CassandraClientSampler.rateLimitedPerQuery(1);
+
+    assertThat(sampler.trySample(users)).isTrue();
+    assertThat(sampler.trySample(new SimpleStatement(users.getQueryString()))).isFalse();
+  }
+
+  @Test public void sameShapesShareLimit() {
+    CassandraClientSampler sampler = CassandraClientSampler.rateLimitedPerQuery(1);
+
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM users WHERE id = 1")))
+        .isTrue();
+    assertThat(sampler.trySample(new SimpleStatement("SELECT * FROM users WHERE id = 2")))
+        .isFalse();
+  }
+
+  @Test public void otherStatementsAreKeyedByType() {
+    CassandraClientSampler sampler = CassandraClientSampler.rateLimitedPerQuery(1);
+
+    assertThat(sampler.trySample(new BatchStatement())).isTrue();
+    assertThat(sampler.trySample(new BatchStatement().add(users))).isFalse();
+  }
+
+  @Test public void queriesPastMaxEvictLeastRecentlyUsed() {
+    QueryRateLimitingSampler sampler =
+        (QueryRateLimitingSampler) CassandraClientSampler.rateLimitedPerQuery(1, 2);
+
+    assertThat(sampler.trySample(users)).isTrue();
+    assertThat(sampler.trySample(emails)).isTrue();
+    assertThat(sampler.trySample(users)).isFalse(); // users is now more recent than emails
+    assertThat(sampler.trySample(accounts)).isTrue();
+
+    assertThat(sampler.samplers.asMap())
+        .containsOnlyKeys(users.getQueryString(), accounts.getQueryString());
+  }
+
+  @Test public void zeroMaxQueriesShareOneLimit() {
+    CassandraClientSampler sampler = CassandraClientSampler.rateLimitedPerQuery(1, 0);
+
+    assertThat(sampler.trySample(users)).isTrue();
+    assertThat(sampler.trySample(emails)).isFalse();
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
+import brave.test.TestSpanHandler;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.util.concurrent.Futures;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class QueryTraceImporterTest {
+  static final long STARTED_AT = 1600000000000L;
+  static final InetAddress COORDINATOR = InetAddress.getLoopbackAddress();
+
+  // long enough that nothing is read during a test
+  QueryTraceImporter importer = QueryTraceImporter.create(1, TimeUnit.HOURS, 2);
+  TestSpanHandler spans = new TestSpanHandler();
+  Tracing tracing = Tracing.newBuilder().addSpanHandler(spans).build();
+  TraceContext parent = tracing.tracer().newTrace().context();
+
+  @After public void close() {
+    importer.close();
+    tracing.close();
+  }
+
+  @Test public void offer_dropsOverMaxPending() {
+    assertThat(importer.offer(newTrace())).isTrue();
+    assertThat(importer.offer(newTrace())).isTrue();
+    assertThat(importer.offer(newTrace())).isFalse();
+
+    assertThat(importer.pending()).isEqualTo(2);
+    assertThat(importer.dropped()).isEqualTo(1L);
+  }
+
+  @Test public void importDue_skipsTracesNotYetDue() {
+    importer.offer(newTrace());
+
+    importer.importDue(); // would fail reading a null session
+
+    assertThat(importer.pending()).isEqualTo(1);
+    assertThat(importer.queue).hasSize(1);
+  }
+
+  @Test public void importDue_waitsForQueries() {
+    importer.offer(newTrace());
+    importer.queue.peek().dueNanos = System.nanoTime() - 1L; // due now
+    importer.queries.acquireUninterruptibly(QueryTraceImporter.MAX_QUERIES - 1); // needs two
+
+    importer.importDue(); // would fail reading a null session
+
+    assertThat(importer.queue).hasSize(1); // read later
+    assertThat(importer.queries.availablePermits()).isOne();
+  }
+
+  @Test public void close_dropsPending() {
+    importer.offer(newTrace());
+
+    importer.close();
+
+    assertThat(importer.pending()).isZero();
+    assertThat(importer.dropped()).isEqualTo(1L);
+    assertThat(importer.offer(newTrace())).isFalse();
+  }
+
+  @Test public void readBatch_reportsEachTraceWithItsOwnEvents() throws Exception {
+    QueryTraceImporter.PendingTrace first = pendingTrace(), second = pendingTrace();
+    InetAddress replica = InetAddress.getByName("10.0.0.2");
+
+    new QueryTraceImporter.ReadBatch(importer, Futures.immediateFuture(Arrays.asList(
+        resultSet(session(first, 2000), session(second, 1000)),
+        resultSet(event(1, "Parsing SELECT", COORDINATOR), event(2, "Read 1 live rows", replica)),
+        resultSet(event(1, "Preparing statement", COORDINATOR)))),
+        Arrays.asList(first, second)).run();
+
+    assertThat(spans).hasSize(2);
+    MutableSpan firstSpan = spans.get(0), secondSpan = spans.get(1);
+    assertThat(firstSpan.name()).isEqualTo("query-trace");
+    assertThat(firstSpan.parentId()).isEqualTo(parent.spanIdString());
+    assertThat(firstSpan.tags())
+        .containsEntry("cassandra.trace.session_id", first.traceId.toString())
+        .containsEntry("cassandra.trace.coordinator", COORDINATOR.getHostAddress());
+    assertThat(firstSpan.startTimestamp()).isEqualTo(STARTED_AT * 1000L);
+    assertThat(firstSpan.finishTimestamp()).isEqualTo(STARTED_AT * 1000L + 2000L);
+    assertThat(firstSpan.annotations()).extracting(Map.Entry::getValue)
+        .containsExactly("Parsing SELECT", "10.0.0.2: Read 1 live rows");
+    assertThat(secondSpan.tags())
+        .containsEntry("cassandra.trace.session_id", second.traceId.toString());
+    assertThat(secondSpan.annotations()).extracting(Map.Entry::getValue)
+        .containsExactly("Preparing statement");
+    assertThat(importer.pending()).isZero();
+  }
+
+  @Test public void readBatch_retriesUnfinishedTrace() {
+    QueryTraceImporter.PendingTrace trace = pendingTrace();
+
+    new QueryTraceImporter.ReadBatch(importer, Futures.immediateFuture(Arrays.asList(
+        resultSet(), resultSet())), Arrays.asList(trace)).run();
+
+    assertThat(spans).isEmpty();
+    assertThat(importer.queue).containsExactly(trace);
+    assertThat(trace.tries).isEqualTo(1);
+    assertThat(importer.pending()).isEqualTo(1);
+  }
+
+  @Test public void readBatch_dropsOnError() {
+    QueryTraceImporter.PendingTrace trace = pendingTrace();
+
+    new QueryTraceImporter.ReadBatch(importer,
+        Futures.immediateFailedFuture(new IllegalStateException()), Arrays.asList(trace)).run();
+
+    assertThat(spans).isEmpty();
+    assertThat(importer.pending()).isZero();
+    assertThat(importer.dropped()).isEqualTo(1L);
+  }
+
+  @Test public void timestampMicros() {
+    long epochMillis = 1600000000123L;
+    UUID eventId = UUIDs.startOf(epochMillis);
+
+    assertThat(QueryTraceImporter.timestampMicros(eventId)).isEqualTo(epochMillis * 1000L);
+  }
+
+  @Test public void create_validatesArguments() {
+    assertThatThrownBy(() -> QueryTraceImporter.create(0, TimeUnit.SECONDS, 1))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> QueryTraceImporter.create(1, TimeUnit.SECONDS, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  static QueryTraceImporter.PendingTrace newTrace() {
+    return new QueryTraceImporter.PendingTrace(null, null, null, UUIDs.timeBased());
+  }
+
+  /** Returns a trace counted as pending, but not queued, as if it were being read. */
+  QueryTraceImporter.PendingTrace pendingTrace() {
+    QueryTraceImporter.PendingTrace result =
+        new QueryTraceImporter.PendingTrace(null, tracing.tracer(), parent, UUIDs.timeBased());
+    importer.offer(result);
+    importer.queue.remove(result);
+    return result;
+  }
+
+  static Row session(QueryTraceImporter.PendingTrace trace, int durationMicros) {
+    Map<String, Object> columns = new LinkedHashMap<>();
+    columns.put("session_id", trace.traceId);
+    columns.put("duration", durationMicros);
+    columns.put("started_at", new Date(STARTED_AT));
+    columns.put("coordinator", COORDINATOR);
+    return row(columns);
+  }
+
+  static Row event(long offsetMillis, String activity, InetAddress source) {
+    Map<String, Object> columns = new LinkedHashMap<>();
+    columns.put("event_id", UUIDs.startOf(STARTED_AT + offsetMillis));
+    columns.put("activity", activity);
+    columns.put("source", source);
+    return row(columns);
+  }
+
+  /** Returns a row which reads columns by name, such as {@code getUUID("session_id")}. */
+  static Row row(Map<String, Object> columns) {
+    return (Row) Proxy.newProxyInstance(Row.class.getClassLoader(), new Class<?>[] {Row.class},
+        (proxy, method, args) -> {
+          if (args == null || args.length != 1 || !(args[0] instanceof String)) {
+            throw new UnsupportedOperationException(method.toString());
+          }
+          Object value = columns.get(args[0]);
+          return method.getName().equals("isNull") ? value == null : value;
+        });
+  }
+
+  /** Returns a result set whose rows are all available without fetching. */
+  static ResultSet resultSet(Row... rows) {
+    Deque<Row> remaining = new ArrayDeque<>(Arrays.asList(rows));
+    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getAvailableWithoutFetching":
+              return remaining.size();
+            case "one":
+              return remaining.poll();
+            default:
+              throw new UnsupportedOperationException(method.toString());
+          }
+        });
+  }
+}
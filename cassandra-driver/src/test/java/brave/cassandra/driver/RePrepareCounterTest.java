@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RePrepareCounterTest {
+  RePrepareCounter counter = new RePrepareCounter();
+
+  @Test public void countsAndRate() {
+    for (int i = 0; i < 30; i++) counter.increment(1000L);
+    for (int i = 0; i < 30; i++) counter.increment(1001L);
+
+    assertThat(counter.count()).isEqualTo(60L);
+    assertThat(counter.ratePerSecond(1001L)).isEqualTo(1.0);
+  }
+
+  @Test public void rateExcludesOldSeconds() {
+    counter.increment(1000L);
+    counter.increment(1000L + RePrepareCounter.WINDOW_SECONDS); // same bucket, next window
+
+    assertThat(counter.count()).isEqualTo(2L);
+    assertThat(counter.ratePerSecond(1000L + RePrepareCounter.WINDOW_SECONDS))
+        .isEqualTo(1.0 / RePrepareCounter.WINDOW_SECONDS);
+    assertThat(counter.ratePerSecond(1000L + 2 * RePrepareCounter.WINDOW_SECONDS)).isZero();
+  }
+
+  @Test public void negativeSeconds() {
+    counter.increment(-1L);
+
+    assertThat(counter.ratePerSecond(-1L)).isEqualTo(1.0 / RePrepareCounter.WINDOW_SECONDS);
+  }
+}
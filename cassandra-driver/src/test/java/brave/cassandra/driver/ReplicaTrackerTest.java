@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplicaTrackerTest {
+  @Test public void murmur3Token_int() { // select token(id) from table where id = 1
+    ByteBuffer key = ByteBuffer.allocate(4).putInt(0, 1);
+
+    assertThat(ReplicaTracker.murmur3Token(key)).isEqualTo(-4069959284402364209L);
+  }
+
+  @Test public void murmur3Token_text() {
+    assertThat(ReplicaTracker.murmur3Token(utf8("a")))
+        .isEqualTo(-8839064797231613815L);
+    assertThat(ReplicaTracker.murmur3Token(utf8("brave")))
+        .isEqualTo(-2835239926303835082L);
+    assertThat(ReplicaTracker.murmur3Token(utf8("0123456789abcdef"))) // one block, no tail
+        .isEqualTo(5467490433528156583L);
+    assertThat(ReplicaTracker.murmur3Token(utf8("0123456789abcdefghijklmnop")))
+        .isEqualTo(-6153249011313433231L);
+  }
+
+  @Test public void murmur3Token_readsFromPosition() {
+    ByteBuffer key = ByteBuffer.allocate(8).putInt(4, 1);
+    key.position(4);
+
+    assertThat(ReplicaTracker.murmur3Token(key)).isEqualTo(-4069959284402364209L);
+    assertThat(key.position()).isEqualTo(4);
+  }
+
+  @Test public void ring_replicas() {
+    Set<String> a = singleton("a"), b = singleton("b"), c = singleton("c");
+    ReplicaTracker.Ring ring =
+        new ReplicaTracker.Ring(new long[] {-100L, 0L, 100L}, new Set<?>[] {a, b, c});
+
+    assertThat(ring.replicas(Long.MIN_VALUE)).isSameAs(a);
+    assertThat(ring.replicas(-100L)).isSameAs(a); // ranges include their end
+    assertThat(ring.replicas(-99L)).isSameAs(b);
+    assertThat(ring.replicas(0L)).isSameAs(b);
+    assertThat(ring.replicas(100L)).isSameAs(c);
+    assertThat(ring.replicas(101L)).isSameAs(a); // wraps around
+  }
+
+  @Test public void counter() {
+    ReplicaHitCounter counter = new ReplicaHitCounter();
+    assertThat(counter.hitRatio()).isZero();
+
+    counter.record(true);
+    counter.record(true);
+    counter.record(true);
+    counter.record(false);
+
+    assertThat(counter.hits()).isEqualTo(3L);
+    assertThat(counter.misses()).isEqualTo(1L);
+    assertThat(counter.hitRatio()).isEqualTo(0.75);
+  }
+
+  static ByteBuffer utf8(String value) {
+    return ByteBuffer.wrap(value.getBytes(UTF_8));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import brave.SpanCustomizer;
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ExecutionInfo;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+
+import static brave.cassandra.driver4.CassandraTraceKeys.CASSANDRA_KEYSPACE;
+import static brave.cassandra.driver4.CassandraTraceKeys.CASSANDRA_QUERY;
+
+/**
+ * Provides reasonable defaults for the data contained in cassandra client spans. Subclass to
+ * customize, for example, to add tags based on response headers.
+ */
+public class CassandraClientParser {
+  /**
+   * Override to change what data from the statement are parsed into the span representing it. By
+   * default, this sets the span name to the statement type, and tags {@link
+   * CassandraTraceKeys#CASSANDRA_KEYSPACE}. For bound statements, this also tags {@link
+   * CassandraTraceKeys#CASSANDRA_QUERY}.
+   *
+   * <p>If you only want to change the span name, you can override {@link #spanName(Statement)}
+   * instead.
+   *
+   * @see #spanName(Statement)
+   */
+  public void request(Statement<?> statement, SpanCustomizer customizer) {
+    customizer.name(spanName(statement));
+    CqlIdentifier keyspace = statement.getKeyspace();
+    if (keyspace == null) keyspace = statement.getRoutingKeyspace();
+    if (keyspace != null) customizer.tag(CASSANDRA_KEYSPACE, keyspace.asInternal());
+    if (statement instanceof BoundStatement) {
+      customizer.tag(CASSANDRA_QUERY,
+          ((BoundStatement) statement).getPreparedStatement().getQuery());
+    }
+  }
+
+  /**
+   * Returns the span name of the statement. Defaults to the same names as the 3.x driver, ex
+   * "bound-statement", as 4.x implementation types are all named "Default..."
+   */
+  protected String spanName(Statement<?> statement) {
+    if (statement instanceof BoundStatement) return "bound-statement";
+    if (statement instanceof SimpleStatement) return "simple-statement";
+    if (statement instanceof BatchStatement) return "batch-statement";
+    return "statement";
+  }
+
+  /**
+   * Override to parse data from the response into the span modeling it. This receives {@link
+   * ExecutionInfo} as it is common to both synchronous and asynchronous result sets.
+   */
+  public void response(ExecutionInfo info, SpanCustomizer customizer) {
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+/** The same keys as the 3.x instrumentation, so spans aggregate the same way across drivers. */
+public final class CassandraTraceKeys {
+  public static final String CASSANDRA_KEYSPACE = "cassandra.keyspace";
+
+  /**
+   * The CQL query in a statement. Ex. "select * from customers where id = ?"
+   *
+   * <p>Used to understand the complexity of a request
+   */
+  public static final String CASSANDRA_QUERY = "cassandra.query";
+
+  private CassandraTraceKeys() {
+  }
+}
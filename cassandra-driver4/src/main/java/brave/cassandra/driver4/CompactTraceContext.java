@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import brave.propagation.TraceContext;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the trace context as 26 bytes under the payload key {@value #KEY}, as opposed to the ~55
+ * byte B3 single format. This is a binary equivalent of W3C traceparent, read by {@code
+ * brave.cassandra.Tracing} without decoding characters.
+ *
+ * <pre>{@code
+ * version (1, zero) | trace ID (16, high bits first) | span ID (8) | flags (1)
+ * }</pre>
+ *
+ * <p>Flags are {@value #FLAG_SAMPLED} when sampled, or'ed with {@value #FLAG_DEBUG} when debug.
+ * When only the sampling decision is needed, the 2 byte form has only the version and flags.
+ *
+ * <p>This is a deliberate copy of the same type in the 3.x driver instrumentation, as the two
+ * modules don't depend on each other or a shared artifact. Change both together.
+ */
+final class CompactTraceContext {
+  static final String KEY = "tp";
+  static final byte VERSION = 0;
+  static final byte FLAG_SAMPLED = 1, FLAG_DEBUG = 2;
+  static final int SIZE = 26;
+
+  /** Only the sampling decision, shared as it is the same for all unsampled requests. */
+  static final ByteBuffer NOT_SAMPLED = ByteBuffer.wrap(new byte[] {VERSION, 0}).asReadOnlyBuffer();
+
+  static ByteBuffer write(TraceContext context) {
+    byte[] bytes = new byte[SIZE];
+    bytes[0] = VERSION;
+    writeLong(bytes, 1, context.traceIdHigh());
+    writeLong(bytes, 9, context.traceId());
+    writeLong(bytes, 17, context.spanId());
+    byte flags = 0;
+    if (Boolean.TRUE.equals(context.sampled())) flags |= FLAG_SAMPLED;
+    if (context.debug()) flags |= FLAG_DEBUG;
+    bytes[25] = flags;
+    return ByteBuffer.wrap(bytes);
+  }
+
+  static void writeLong(byte[] bytes, int pos, long value) {
+    for (int i = 7; i >= 0; i--) {
+      bytes[pos + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private CompactTraceContext() {
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import brave.Tracing;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.api.core.session.SessionBuilder;
+
+/**
+ * Builds a {@link CqlSession} whose statements are traced. Use this in place of {@code
+ * CqlSession.builder()}.
+ *
+ * <p>Tracing is installed into the driver's request processors, as opposed to wrapping the
+ * session. This means statements are traced whether executed synchronously or asynchronously,
+ * without an extra object per call. Reactive and continuous paging requests aren't traced.
+ */
+public final class TracingCqlSessionBuilder
+    extends SessionBuilder<TracingCqlSessionBuilder, CqlSession> {
+  public static TracingCqlSessionBuilder create(Tracing tracing) {
+    return create(CassandraClientTracing.create(tracing));
+  }
+
+  public static TracingCqlSessionBuilder create(CassandraClientTracing cassandraTracing) {
+    if (cassandraTracing == null) throw new NullPointerException("cassandraTracing == null");
+    return new TracingCqlSessionBuilder(cassandraTracing);
+  }
+
+  final CassandraClientTracing cassandraTracing;
+
+  TracingCqlSessionBuilder(CassandraClientTracing cassandraTracing) {
+    this.cassandraTracing = cassandraTracing;
+  }
+
+  @Override protected DriverContext buildContext(DriverConfigLoader configLoader,
+      ProgrammaticArguments programmaticArguments) {
+    return new TracingDriverContext(configLoader, programmaticArguments, cassandraTracing);
+  }
+
+  @Override protected CqlSession wrap(CqlSession defaultSession) {
+    return defaultSession;
+  }
+}
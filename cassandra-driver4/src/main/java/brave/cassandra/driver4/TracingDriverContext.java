@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.internal.core.session.RequestProcessorRegistry;
+
+/** Installs tracing into the request processors of the driver. */
+final class TracingDriverContext extends DefaultDriverContext {
+  final CassandraClientTracing cassandraTracing;
+
+  TracingDriverContext(DriverConfigLoader configLoader,
+      ProgrammaticArguments programmaticArguments, CassandraClientTracing cassandraTracing) {
+    super(configLoader, programmaticArguments);
+    this.cassandraTracing = cassandraTracing;
+  }
+
+  // This is called lazily, after the constructor assigns the tracing component.
+  @Override protected RequestProcessorRegistry buildRequestProcessorRegistry() {
+    return new TracingRequestProcessorRegistry(
+        getSessionName(), super.buildRequestProcessorRegistry(), cassandraTracing);
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import brave.Span;
+import brave.Tracer;
+import brave.propagation.B3SingleFormat;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.ExecutionInfo;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.type.reflect.GenericType;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.session.DefaultSession;
+import com.datastax.oss.driver.internal.core.session.RequestProcessor;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import static brave.Span.Kind.CLIENT;
+
+/**
+ * Traces statements processed by the driver's own request processor. This runs on the calling
+ * thread, so the current span is the parent, and asynchronous results are finished with {@link
+ * CompletionStage#whenComplete}, which runs on the thread completing the request, without a hop.
+ *
+ * <p>Synchronous processors are wrapped too. They wrap the asynchronous processor directly, as
+ * opposed to through the registry, so each statement is only traced once.
+ */
+final class TracingRequestProcessor<RequestT extends Request, ResultT>
+    implements RequestProcessor<RequestT, ResultT> {
+  /** B3 single "deny" format, as only the sampling decision is needed downstream. */
+  static final ByteBuffer NOT_SAMPLED = ByteBuffer.wrap(new byte[] {'0'}).asReadOnlyBuffer();
+
+  final RequestProcessor<RequestT, ResultT> delegate;
+  final Tracer tracer;
+  final CassandraClientSampler sampler;
+  final CassandraClientParser parser;
+  final boolean propagationEnabled;
+  final boolean compactPropagationEnabled;
+  volatile String remoteServiceName; // lazy as the cluster name is unknown until connected
+
+  TracingRequestProcessor(RequestProcessor<RequestT, ResultT> delegate,
+      CassandraClientTracing cassandraTracing) {
+    this.delegate = delegate;
+    this.tracer = cassandraTracing.tracing().tracer();
+    this.sampler = cassandraTracing.sampler();
+    this.parser = cassandraTracing.parser();
+    this.propagationEnabled = cassandraTracing.propagationEnabled();
+    this.compactPropagationEnabled = cassandraTracing.compactPropagationEnabled();
+    this.remoteServiceName = cassandraTracing.remoteServiceName();
+  }
+
+  @Override public boolean canProcess(Request request, GenericType<?> resultType) {
+    return delegate.canProcess(request, resultType);
+  }
+
+  @Override public ResultT process(RequestT request, DefaultSession session,
+      InternalDriverContext context, String sessionLogPrefix) {
+    if (!(request instanceof Statement)) {
+      return delegate.process(request, session, context, sessionLogPrefix);
+    }
+    Statement<?> statement = (Statement<?>) request;
+    Span span = tracer.nextSpan(sampler, statement);
+    if (span.isNoop()) { // don't parse or add a callback on noop
+      return delegate.process(maybeDecorate(request, span), session, context, sessionLogPrefix);
+    }
+
+    parser.request(statement, span.kind(CLIENT));
+    RequestT decorated = maybeDecorate(request, span);
+
+    span.start();
+    ResultT result;
+    try {
+      result = delegate.process(decorated, session, context, sessionLogPrefix);
+    } catch (RuntimeException | Error e) {
+      span.error(e);
+      span.finish();
+      throw e;
+    }
+    if (result instanceof CompletionStage) {
+      ((CompletionStage<?>) result).whenComplete(new FinishSpan(span, session, this));
+    } else if (result instanceof ResultSet) {
+      finish(span, ((ResultSet) result).getExecutionInfo(), session);
+    } else { // the registry only wraps processors whose results are handled above
+      span.finish();
+    }
+    return result;
+  }
+
+  @Override public ResultT newFailure(RuntimeException error) {
+    return delegate.newFailure(error);
+  }
+
+  void finish(Span span, ExecutionInfo info, DefaultSession session) {
+    Node coordinator = info.getCoordinator();
+    if (coordinator != null) {
+      SocketAddress address = coordinator.getEndPoint().resolve();
+      if (address instanceof InetSocketAddress) {
+        InetSocketAddress host = (InetSocketAddress) address;
+        span.remoteIpAndPort(host.getHostString(), host.getPort());
+      }
+    }
+    String remoteServiceName = this.remoteServiceName;
+    if (remoteServiceName == null) {
+      remoteServiceName = session.getMetadata().getClusterName().orElse(null);
+      this.remoteServiceName = remoteServiceName;
+    }
+    span.remoteServiceName(remoteServiceName);
+    parser.response(info, span);
+    span.finish();
+  }
+
+  /** Returns the statement to execute, after adding any trace context to it. */
+  @SuppressWarnings("unchecked") // statements return their own type from setters
+  RequestT maybeDecorate(RequestT request, Span span) {
+    if (!propagationEnabled) return request;
+    Statement<?> statement = (Statement<?>) request;
+    if (!statement.isTracing()) statement = statement.setTracing(true);
+    boolean sampled = !Boolean.FALSE.equals(span.context().sampled());
+    String key = compactPropagationEnabled ? CompactTraceContext.KEY : "b3";
+    ByteBuffer value;
+    if (!sampled) { // a duplicate, so reading it doesn't move the position other requests see
+      value = compactPropagationEnabled ? CompactTraceContext.NOT_SAMPLED : NOT_SAMPLED;
+      value = value.duplicate();
+    } else if (compactPropagationEnabled) {
+      value = CompactTraceContext.write(span.context());
+    } else {
+      value = ByteBuffer.wrap(B3SingleFormat.writeB3SingleFormatAsBytes(span.context()));
+    }
+    Map<String, ByteBuffer> existing = statement.getCustomPayload();
+    if (existing.isEmpty() || existing.size() == 1 && hasTraceContext(existing)) {
+      return (RequestT) statement.setCustomPayload(Collections.singletonMap(key, value));
+    }
+    Map<String, ByteBuffer> payload = new LinkedHashMap<>(existing);
+    payload.remove("b3"); // replace any previous value, in either format
+    payload.remove(CompactTraceContext.KEY);
+    payload.put(key, value);
+    return (RequestT) statement.setCustomPayload(payload);
+  }
+
+  static boolean hasTraceContext(Map<String, ByteBuffer> payload) {
+    return payload.containsKey("b3") || payload.containsKey(CompactTraceContext.KEY);
+  }
+
+  /** Finishes the span when the asynchronous result completes, on the completing thread. */
+  static final class FinishSpan implements BiConsumer<Object, Throwable> {
+    final Span span;
+    final DefaultSession session;
+    final TracingRequestProcessor<?, ?> processor;
+
+    FinishSpan(Span span, DefaultSession session, TracingRequestProcessor<?, ?> processor) {
+      this.span = span;
+      this.session = session;
+      this.processor = processor;
+    }
+
+    @Override public void accept(Object result, Throwable error) {
+      if (error != null) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+          error = error.getCause();
+        }
+        span.error(error);
+        span.finish();
+        return;
+      }
+      if (result instanceof AsyncResultSet) {
+        processor.finish(span, ((AsyncResultSet) result).getExecutionInfo(), session);
+      } else { // unexpected, as the registry only wraps processors of AsyncResultSet
+        span.finish();
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.type.reflect.GenericType;
+import com.datastax.oss.driver.internal.core.session.RequestProcessor;
+import com.datastax.oss.driver.internal.core.session.RequestProcessorRegistry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Wraps the processors of the driver's registry, so that statements are traced whether executed
+ * synchronously or asynchronously. Other requests, such as prepare, aren't traced.
+ *
+ * <p>Reactive and continuous paging results aren't traced. A reactive result is a publisher which
+ * only executes its request when subscribed, and continuous paging results complete page by page,
+ * so neither completes with the request. Their processors use the asynchronous processor directly,
+ * so they aren't traced there either.
+ */
+final class TracingRequestProcessorRegistry extends RequestProcessorRegistry {
+  final RequestProcessorRegistry delegate;
+  final CassandraClientTracing cassandraTracing;
+  // The driver has a few processors, so wrappers are cached instead of allocated per request.
+  final ConcurrentMap<RequestProcessor<?, ?>, RequestProcessor<?, ?>> wrappers =
+      new ConcurrentHashMap<>();
+
+  TracingRequestProcessorRegistry(String logPrefix, RequestProcessorRegistry delegate,
+      CassandraClientTracing cassandraTracing) {
+    super(logPrefix);
+    this.delegate = delegate;
+    this.cassandraTracing = cassandraTracing;
+  }
+
+  @Override @SuppressWarnings("unchecked") // wrappers have the same types as their delegate
+  public <RequestT extends Request, ResultT> RequestProcessor<RequestT, ResultT> processorFor(
+      RequestT request, GenericType<ResultT> resultType) {
+    RequestProcessor<RequestT, ResultT> processor = delegate.processorFor(request, resultType);
+    if (!(request instanceof Statement) || !isTraced(resultType)) return processor;
+    RequestProcessor<?, ?> result = wrappers.get(processor);
+    if (result == null) {
+      RequestProcessor<?, ?> wrapper = new TracingRequestProcessor<>(processor, cassandraTracing);
+      result = wrappers.putIfAbsent(processor, wrapper);
+      if (result == null) result = wrapper;
+    }
+    return (RequestProcessor<RequestT, ResultT>) result;
+  }
+
+  /** Returns true for results that complete with the request, which are the ones we can finish. */
+  static boolean isTraced(GenericType<?> resultType) {
+    return Statement.SYNC.equals(resultType) || Statement.ASYNC.equals(resultType);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.cassandra.driver4;
+
+import brave.handler.MutableSpan;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.SamplingFlags;
+import brave.propagation.TraceContext;
+import brave.test.ITRemote;
+import cassandra.CassandraRule;
+import com.datastax.dse.driver.api.core.cql.reactive.ReactiveRow;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static brave.Span.Kind.CLIENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class ITTracingCqlSession extends ITRemote {
+  @ClassRule public static CassandraRule cassandra = new CassandraRule();
+
+  CqlSession session;
+  PreparedStatement prepared;
+
+  @Before public void setup() {
+    session = newSession(CassandraClientTracing.newBuilder(tracing));
+  }
+
+  @After public void close() {
+    if (session != null) session.close();
+  }
+
+  CqlSession newSession(CassandraClientTracing.Builder builder) {
+    CqlSession result = TracingCqlSessionBuilder.create(builder.build())
+        .addContactPoint(cassandra.contactPoint())
+        .withLocalDatacenter("datacenter1")
+        .build();
+    prepared = result.prepare("SELECT * from system.schema_keyspaces");
+    return result;
+  }
+
+  @Test public void makesChildOfCurrentSpan() {
+    TraceContext parent = newTraceContext(SamplingFlags.SAMPLED);
+    try (Scope scope = currentTraceContext.newScope(parent)) {
+      invokeBoundStatement();
+    }
+
+    assertChildOf(testSpanHandler.takeRemoteSpan(CLIENT), parent);
+  }
+
+  @Test public void reportsClientKindToZipkin() {
+    invokeBoundStatement();
+
+    testSpanHandler.takeRemoteSpan(CLIENT);
+  }
+
+  @Test public void tagsBoundStatement() {
+    invokeBoundStatement();
+
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    assertThat(span.name()).isEqualTo("bound-statement");
+    assertThat(span.tags()).containsOnly(
+        entry("cassandra.keyspace", "system"),
+        entry("cassandra.query", prepared.getQuery()));
+  }
+
+  @Test public void tracesAsyncStatements() {
+    session.executeAsync("SELECT * from system.schema_keyspaces").toCompletableFuture().join();
+
+    assertThat(testSpanHandler.takeRemoteSpan(CLIENT).name()).isEqualTo("simple-statement");
+  }
+
+  @Test public void doesntTraceReactiveStatements() throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    session.executeReactive("SELECT * from system.schema_keyspaces")
+        .subscribe(new Subscriber<ReactiveRow>() {
+          @Override public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+          }
+
+          @Override public void onNext(ReactiveRow row) {
+          }
+
+          @Override public void onError(Throwable error) {
+            done.countDown();
+          }
+
+          @Override public void onComplete() {
+            done.countDown();
+          }
+        });
+
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    // test rule ensures no span was reported
+  }
+
+  @Test public void reportsServerAddress() {
+    invokeBoundStatement();
+
+    MutableSpan span = testSpanHandler.takeRemoteSpan(CLIENT);
+    assertThat(span.remoteServiceName())
+        .isEqualTo(session.getMetadata().getClusterName().orElse(null));
+    assertThat(span.remoteIp()).isEqualTo("127.0.0.1");
+    assertThat(span.remotePort()).isEqualTo(cassandra.contactPoint().getPort());
+  }
+
+  @Test public void addsErrorTag() {
+    try {
+      session.execute("SELECT * from system.does_not_exist");
+      failBecauseExceptionWasNotThrown(InvalidQueryException.class);
+    } catch (InvalidQueryException e) {
+      testSpanHandler.takeRemoteSpanWithError(CLIENT);
+    }
+  }
+
+  @Test public void customSampler() {
+    session.close();
+    session = newSession(CassandraClientTracing.newBuilder(tracing)
+        .sampler(CassandraClientSampler.NEVER_SAMPLE));
+
+    invokeBoundStatement();
+
+    // test rule ensures no span was sampled
+  }
+
+  void invokeBoundStatement() {
+    session.execute(prepared.bind());
+  }
+}
@@ -18,6 +18,7 @@ import brave.SpanCustomizer;
 import brave.Tracer;
 import brave.internal.Nullable;
 import brave.propagation.B3SingleFormat;
+import brave.propagation.TraceContext;
 import brave.propagation.TraceContextOrSamplingFlags;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
@@ -88,15 +89,67 @@ public class Tracing extends org.apache.cassandra.tracing.Tracing {
     return sessionId;
   }
 
-  /** This extracts the RPC span encoded in the custom payload, or starts a new trace */
+  /**
+   * This extracts the RPC span encoded in the custom payload, or starts a new trace. The compact
+   * binary format is read before the B3 single format, which needs a character decode.
+   */
   Span spanFromPayload(Tracer tracer, @Nullable Map<String, ByteBuffer> payload) {
-    ByteBuffer b3 = payload != null ? payload.get("b3") : null;
-    if (b3 == null) return tracer.nextSpan();
-    TraceContextOrSamplingFlags extracted = B3SingleFormat.parseB3SingleFormat(UTF_8.decode(b3));
+    if (payload == null) return tracer.nextSpan();
+    TraceContextOrSamplingFlags extracted = null;
+    ByteBuffer compact = payload.get(COMPACT_KEY);
+    if (compact != null) extracted = parseCompact(compact);
+    if (extracted == null) {
+      ByteBuffer b3 = payload.get("b3");
+      if (b3 != null) extracted = B3SingleFormat.parseB3SingleFormat(UTF_8.decode(b3));
+    }
     if (extracted == null) return tracer.nextSpan();
     return tracer.nextSpan(extracted);
   }
 
+  /** The payload key of the compact binary trace context, as written by the driver. */
+  static final String COMPACT_KEY = "tp";
+
+  /**
+   * Parses the compact binary trace context: version zero, 16 byte trace ID, 8 byte span ID and a
+   * flags byte, where 1 is sampled and 2 is debug. The 2 byte form has only the version and flags,
+   * and carries only the sampling decision. Returns null if the input is malformed.
+   */
+  @Nullable static TraceContextOrSamplingFlags parseCompact(ByteBuffer buffer) {
+    int pos = buffer.position();
+    int length = buffer.remaining();
+    if (length < 2 || buffer.get(pos) != 0) return null; // unknown version
+    if (length == 2) {
+      byte flags = buffer.get(pos + 1);
+      return (flags & 1) != 0 ? TraceContextOrSamplingFlags.SAMPLED
+          : TraceContextOrSamplingFlags.NOT_SAMPLED;
+    }
+    if (length != 26) return null;
+    long traceIdHigh = readLong(buffer, pos + 1);
+    long traceId = readLong(buffer, pos + 9);
+    long spanId = readLong(buffer, pos + 17);
+    if (traceId == 0L || spanId == 0L) return null;
+    byte flags = buffer.get(pos + 25);
+    TraceContext.Builder context = TraceContext.newBuilder()
+        .traceIdHigh(traceIdHigh)
+        .traceId(traceId)
+        .spanId(spanId);
+    if ((flags & 2) != 0) {
+      context.debug(true);
+    } else {
+      context.sampled((flags & 1) != 0);
+    }
+    return TraceContextOrSamplingFlags.create(context.build());
+  }
+
+  /** Reads big-endian regardless of the buffer's byte order. */
+  static long readLong(ByteBuffer buffer, int pos) {
+    long result = 0L;
+    for (int i = 0; i < 8; i++) {
+      result = (result << 8) | (buffer.get(pos + i) & 0xff);
+    }
+    return result;
+  }
+
   @Override protected final void stopSessionImpl() {
     ZipkinTraceState state = (ZipkinTraceState) get();
     if (state != null) state.incoming.finish();
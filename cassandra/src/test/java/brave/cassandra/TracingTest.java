@@ -14,9 +14,12 @@
 package brave.cassandra;
 
 import brave.propagation.StrictCurrentTraceContext;
+import brave.propagation.TraceContext;
 import brave.test.TestSpanHandler;
 import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.junit.After;
 import org.junit.Test;
 
@@ -50,4 +53,43 @@ public class TracingTest {
         .extracting(brave.Span::isNoop)
         .isEqualTo(Boolean.TRUE);
   }
+
+  @Test public void spanFromPayload_resumesTraceOnCompactEntry() {
+    byte[] compact = new byte[26];
+    compact[8] = 1; // trace ID high
+    compact[16] = 2; // trace ID
+    compact[24] = 3; // span ID
+    compact[25] = 1; // sampled
+
+    TraceContext context = cassandraTracing.spanFromPayload(tracing.tracer(),
+        Collections.singletonMap("tp", ByteBuffer.wrap(compact))).context();
+
+    assertThat(context.traceIdHigh()).isEqualTo(1L);
+    assertThat(context.traceId()).isEqualTo(2L);
+    assertThat(context.parentId()).isEqualTo(3L);
+    assertThat(context.sampled()).isTrue();
+  }
+
+  @Test public void spanFromPayload_compactNotSampled() {
+    assertThat(cassandraTracing.spanFromPayload(tracing.tracer(), Collections.singletonMap("tp",
+        ByteBuffer.wrap(new byte[] {0, 0}))))
+        .extracting(brave.Span::isNoop)
+        .isEqualTo(Boolean.TRUE);
+  }
+
+  @Test public void spanFromPayload_fallsBackToB3OnUnknownCompactVersion() {
+    Map<String, ByteBuffer> payload = new LinkedHashMap<>();
+    payload.put("tp", ByteBuffer.wrap(new byte[] {9, 1}));
+    payload.put("b3", ByteBuffer.wrap(new byte[] {'0'}));
+
+    assertThat(cassandraTracing.spanFromPayload(tracing.tracer(), payload))
+        .extracting(brave.Span::isNoop)
+        .isEqualTo(Boolean.TRUE);
+  }
+
+  @Test public void parseCompact_malformed() {
+    assertThat(Tracing.parseCompact(ByteBuffer.wrap(new byte[] {0}))).isNull();
+    assertThat(Tracing.parseCompact(ByteBuffer.wrap(new byte[25]))).isNull();
+    assertThat(Tracing.parseCompact(ByteBuffer.wrap(new byte[26]))).isNull(); // zero IDs
+  }
 }